@@ -2,9 +2,15 @@ package hook;
 
 import io.restassured.RestAssured;
 import org.testng.annotations.Listeners;
+import utilities.BalancingFilter;
+import utilities.DifferInstances;
+import utilities.Environment;
 import utilities.ExtentReporterNG;
+import utilities.MetricsFilter;
+import utilities.MetricsServer;
+import utilities.SlowRequestWatchdog;
+import utilities.WatchdogFilter;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
 
@@ -16,27 +22,43 @@ import java.util.Properties;
 public class TestBase {
     /**
      * This is assuming that this project might not be run on the same machine as the application under test.
-     * Hence the HOST will be set from the environment property file in the resources folder of the project.
+     * Hence the HOST will be set from the environment property file in the resources folder of the project,
+     * unless it is overridden by a HOST system property or environment variable.
+     * With HOSTS, the requests to HOST are spread over several differ instances, see {@link DifferInstances}.
      **/
     public static Properties environment;
 
+    public static final String BASE_PATH = "/diffassign/v1/diff";
+
     public void initializeBaseURI() throws IOException {
 
-        //Read file from location within project and get the defined HOST
-        environment = new Properties();
-        FileInputStream environmentFile = new FileInputStream(System.getProperty("user.dir")
-                + "/src/main/resources/environment.properties"); //Location of the property file
-        environment.load(environmentFile);
+        //The configuration is resolved once per JVM, every test class shares it
+        synchronized (TestBase.class) {
+            if (environment != null)
+                return;
+
+            environment = Environment.properties();
+
+            //Set base URI
+            RestAssured.baseURI = Environment.get("HOST");
+
+            //Set base path
+            RestAssured.basePath = BASE_PATH;
+
+            //Record every request, for the live metrics and the performance trends
+            RestAssured.filters(new MetricsFilter());
 
-        //Set base URI
-        RestAssured.baseURI = environment.getProperty("HOST");
+            //Spread the requests over the differ instances, if HOSTS is configured
+            DifferInstances.configureIfListed();
+            RestAssured.filters(new BalancingFilter());
 
-        /*RestAssured.baseURI = System.getProperty("server.host");
-        String port = System.getProperty("server.port");
-        RestAssured.port = Integer.valueOf(port);*/
+            //Capture diagnostics of requests that hang, unless SLOW_REQUEST_MILLIS is 0
+            RestAssured.filters(new WatchdogFilter());
+            SlowRequestWatchdog.startIfEnabled();
 
-        //Set base path
-        RestAssured.basePath = "/diffassign/v1/diff";
+            //Serve the live harness metrics, if METRICS_PORT is configured
+            MetricsServer.startIfConfigured();
+        }
     }
 
 }
@@ -0,0 +1,352 @@
+package load;
+
+import hook.TestBase;
+import io.restassured.RestAssured;
+import io.restassured.response.Response;
+import utilities.Environment;
+import utilities.FlightRecording;
+import utilities.HarnessLog;
+import utilities.PayloadCache;
+import utilities.ResourceSampler;
+import utilities.TestUtililities;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class compares the performance of two differ builds under the same workload:
+ * A is the differ at HOST, B is the differ at HOST_B.
+ *
+ * Both builds run side by side, so drift of the machine hits both of them alike:
+ * 1. Latency: every round runs the same workflow (left, right, diff) against A and against B,
+ *    in an order picked by a coin flip, and records the latency of every request.
+ * 2. Throughput: closed-loop windows of AB_CONCURRENCY workers, in the order A B B A A B B A ...,
+ *    record the completed workflows per second of each build.
+ *
+ * For each endpoint and for the throughput it reports A, B, the delta and a bootstrap confidence interval
+ * of the delta. A delta counts as significant when the interval excludes zero; the medians and the throughput
+ * must also have a Mann-Whitney U test p-value below AB_ALPHA. The rank test compares whole distributions,
+ * so it says nothing about a tail percentile and the p99 rows rely on the interval alone.
+ * Failed requests are left out of the latencies and failed workflows out of the throughput;
+ * they are counted per build and reported as errors, which make B worse when it has more of them.
+ * The report is printed and written to test-output/ab-comparison.csv.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.ABComparison -DHOST_B=http://localhost:8082
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * HOST_B - base URI of the differ build B, required
+ * AB_ROUNDS=300 - measured rounds of the latency phase
+ * AB_WARMUP_ROUNDS=30 - unmeasured rounds before them
+ * AB_WINDOWS=10 - throughput windows, half of them for each build; below 8 the exact rank test cannot reach p < 0.05
+ * AB_WINDOW_MILLIS=2000 - length of a throughput window
+ * AB_CONCURRENCY=8 - workers of a throughput window
+ * AB_PAYLOAD_LENGTH=100 - length of each side before Base64 encoding
+ * AB_CONFIDENCE=0.95 - confidence level of the intervals
+ * AB_ALPHA=0.05 - p-value below which a delta is significant
+ * AB_MAX_REGRESSION_PERCENT - if set, exits with 1 when B is significantly worse than A by more than this
+ *
+ * @author Adebowale Otulana
+ */
+public class ABComparison {
+
+    public static final Path REPORT_FILE = Paths.get("test-output", "ab-comparison.csv");
+
+    private static final int RESAMPLES = 2000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HarnessLog.toConsole();
+        String hostB = Environment.get("HOST_B", "");
+        if (hostB.isEmpty())
+            throw new IllegalArgumentException("HOST_B is not configured, set it to the base URI of the differ build B");
+
+        int rounds = Integer.parseInt(Environment.get("AB_ROUNDS", "300"));
+        int warmupRounds = Integer.parseInt(Environment.get("AB_WARMUP_ROUNDS", "30"));
+        int windows = Integer.parseInt(Environment.get("AB_WINDOWS", "10"));
+        long windowMillis = Long.parseLong(Environment.get("AB_WINDOW_MILLIS", "2000"));
+        int concurrency = Integer.parseInt(Environment.get("AB_CONCURRENCY", "8"));
+        int payloadLength = Integer.parseInt(Environment.get("AB_PAYLOAD_LENGTH", "100"));
+        double confidence = Double.parseDouble(Environment.get("AB_CONFIDENCE", "0.95"));
+        double alpha = Double.parseDouble(Environment.get("AB_ALPHA", "0.05"));
+        String maxRegression = Environment.get("AB_MAX_REGRESSION_PERCENT");
+
+        new TestBase().initializeBaseURI();
+        TestUtililities.logDiffResponses = false;
+
+        URI a = URI.create(RestAssured.baseURI);
+        URI b = URI.create(hostB);
+        HarnessLog.log("A: " + a + "  B: " + b);
+
+        Random random = new Random();
+        Files.createDirectories(REPORT_FILE.getParent());
+        FlightRecording.startIfConfigured("ab-comparison");
+        ResourceSampler.startIfConfigured("ab-comparison");
+
+        List<Row> rows = new ArrayList<>();
+        try {
+            //Latency phase: the same workflow against both builds, in random order
+            Samples sideA = new Samples();
+            Samples sideB = new Samples();
+            Samples diffA = new Samples();
+            Samples diffB = new Samples();
+            LongAdder latencyErrorsA = new LongAdder();
+            LongAdder latencyErrorsB = new LongAdder();
+
+            for (int round = -warmupRounds; round < rounds; round++) {
+                DiffWorkflow workflow = DiffWorkflow.random(payloadLength, random);
+                boolean measured = round >= 0;
+
+                if (random.nextBoolean()) {
+                    measure(a, workflow, measured ? sideA : null, measured ? diffA : null, latencyErrorsA);
+                    measure(b, workflow, measured ? sideB : null, measured ? diffB : null, latencyErrorsB);
+                } else {
+                    measure(b, workflow, measured ? sideB : null, measured ? diffB : null, latencyErrorsB);
+                    measure(a, workflow, measured ? sideA : null, measured ? diffA : null, latencyErrorsA);
+                }
+            }
+
+            rows.add(compare("POST side", "p50_ms", sideA, sideB, 50, false, confidence, random));
+            rows.add(compare("POST side", "p99_ms", sideA, sideB, 99, false, confidence, random));
+            rows.add(compare("GET diff", "p50_ms", diffA, diffB, 50, false, confidence, random));
+            rows.add(compare("GET diff", "p99_ms", diffA, diffB, 99, false, confidence, random));
+            rows.add(errors("requests", latencyErrorsA, latencyErrorsB));
+
+            //Throughput phase: ABBA windows, so a trend over the run does not favour either build
+            Samples throughputA = new Samples();
+            Samples throughputB = new Samples();
+            LongAdder workflowErrorsA = new LongAdder();
+            LongAdder workflowErrorsB = new LongAdder();
+
+            for (int window = 0; window < windows; window++) {
+                boolean windowOfA = (window + 1) / 2 % 2 == 0;
+                URI host = windowOfA ? a : b;
+
+                double throughput = closedLoopWindow(host, concurrency, windowMillis, payloadLength,
+                        windowOfA ? workflowErrorsA : workflowErrorsB);
+                (windowOfA ? throughputA : throughputB).add(throughput);
+
+                HarnessLog.log(String.format(Locale.ROOT, "Window %d (%s): %.1f workflows/s",
+                        window + 1, windowOfA ? "A" : "B", throughput));
+            }
+
+            rows.add(compare("workflow", "throughput_per_s", throughputA, throughputB, 50, true, confidence, random));
+            rows.add(errors("workflow", workflowErrorsA, workflowErrorsB));
+        } finally {
+            FlightRecording.stop();
+            ResourceSampler.stop();
+        }
+
+        boolean regressed = false;
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(REPORT_FILE))) {
+            report.println("endpoint,metric,a,b,delta,delta_percent,ci_low,ci_high,p_value,verdict");
+
+            for (Row row : rows) {
+                String verdict = row.verdict(alpha);
+                report.println(String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%.3f,%.1f,%s,%s,%s,%s",
+                        row.endpoint, row.metric, row.a, row.b, row.b - row.a, row.deltaPercent(),
+                        format("%.3f", row.low), format("%.3f", row.high), format("%.4f", row.p), verdict));
+
+                HarnessLog.log(String.format(Locale.ROOT,
+                        "%-10s %-17s A=%10.3f B=%10.3f delta=%+9.3f (%+6.1f%%) CI=[%s, %s] p=%s %s",
+                        row.endpoint, row.metric, row.a, row.b, row.b - row.a, row.deltaPercent(),
+                        format("%+.3f", row.low), format("%+.3f", row.high), format("%.4f", row.p), verdict));
+
+                //More errors of B regress it whatever their share
+                if (maxRegression != null && "B worse".equals(verdict)
+                        && (row.isErrors() || Math.abs(row.deltaPercent()) > Double.parseDouble(maxRegression)))
+                    regressed = true;
+            }
+        }
+        HarnessLog.log("A/B comparison written to " + REPORT_FILE);
+        HarnessLog.log("Payload cache: " + PayloadCache.summary());
+
+        if (regressed) {
+            HarnessLog.log("B regressed by more than " + maxRegression + "% on at least one metric");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the workflow against one build and records the latency of each successful request in milliseconds.
+     * Samples are null during the warm-up, whose errors are not counted either.
+     **/
+    private static void measure(URI host, DiffWorkflow workflow, Samples side, Samples diff, LongAdder errors) {
+        long start = System.nanoTime();
+        Response left = send(() -> TestUtililities.setSideValue(host, workflow.getId(), "left", workflow.getLeftBody()));
+        record(side, start, left, errors);
+
+        start = System.nanoTime();
+        Response right = send(() -> TestUtililities.setSideValue(host, workflow.getId(), "right", workflow.getRightBody()));
+        record(side, start, right, errors);
+
+        start = System.nanoTime();
+        Response response = send(() -> TestUtililities.differentiateSides(host, workflow.getId()));
+        record(diff, start, response, errors);
+    }
+
+    /**
+     * @return The response, null if the request failed without one, e.g. when the connection was refused
+     **/
+    private static Response send(Supplier<Response> request) {
+        try {
+            return request.get();
+        } catch (Exception e) {
+            //RestAssured rethrows a ConnectException undeclared
+            return null;
+        }
+    }
+
+    private static void record(Samples samples, long startNanos, Response response, LongAdder errors) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        if (samples == null)
+            return;
+
+        if (response == null || response.getStatusCode() != 200)
+            errors.increment();
+        else
+            samples.add(millis);
+    }
+
+    /**
+     * Keeps the given number of workflows in flight against one build for the given time.
+     *
+     * @param errors
+     *        Where the failed workflows are counted
+     *
+     * @return Successful workflows per second
+     **/
+    private static double closedLoopWindow(URI host, int concurrency, long windowMillis, int payloadLength,
+                                           LongAdder errors) throws InterruptedException {
+        WorkflowStats stats = new WorkflowStats();
+        long end = System.nanoTime() + windowMillis * 1_000_000L;
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                Random random = new Random();
+                while (System.nanoTime() < end)
+                    DiffWorkflow.random(payloadLength, random).run(stats, System.nanoTime(), host);
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(windowMillis + 60_000, TimeUnit.MILLISECONDS);
+        stats.finish();
+        errors.add(stats.errors.sum());
+        return stats.throughput();
+    }
+
+    /**
+     * @param percentile
+     *        Percentile to compare; only the median is also put to the rank test
+     *
+     * @param higherIsBetter
+     *        true for throughput, false for latency
+     **/
+    private static Row compare(String endpoint, String metric, Samples a, Samples b, double percentile,
+                               boolean higherIsBetter, double confidence, Random random) {
+        double[] sortedA = a.sorted();
+        double[] sortedB = b.sorted();
+        double[] interval = Significance.bootstrapDifference(sortedA, sortedB, percentile, confidence, RESAMPLES, random);
+
+        return new Row(endpoint, metric,
+                Significance.percentile(sortedA, percentile),
+                Significance.percentile(sortedB, percentile),
+                interval[0], interval[1],
+                percentile == 50 ? Significance.mannWhitneyP(sortedA, sortedB) : Double.NaN,
+                higherIsBetter);
+    }
+
+    /**
+     * @return The row of the failed requests or workflows of both builds, without interval and p-value
+     **/
+    private static Row errors(String endpoint, LongAdder a, LongAdder b) {
+        return new Row(endpoint, "errors", a.sum(), b.sum(), Double.NaN, Double.NaN, Double.NaN, false);
+    }
+
+    /**
+     * @return The value in the given format, empty if it is NaN
+     **/
+    private static String format(String format, double value) {
+        return Double.isNaN(value) ? "" : String.format(Locale.ROOT, format, value);
+    }
+
+    /**
+     * A growable array of samples, the bootstrap needs every raw sample
+     **/
+    private static class Samples {
+        private double[] values = new double[256];
+        private int size;
+
+        void add(double value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        double[] sorted() {
+            double[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    private static class Row {
+        final String endpoint;
+        final String metric;
+        final double a;
+        final double b;
+        final double low;
+        final double high;
+        final double p;
+        final boolean higherIsBetter;
+
+        Row(String endpoint, String metric, double a, double b, double low, double high, double p,
+            boolean higherIsBetter) {
+            this.endpoint = endpoint;
+            this.metric = metric;
+            this.a = a;
+            this.b = b;
+            this.low = low;
+            this.high = high;
+            this.p = p;
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        double deltaPercent() {
+            return a == 0 ? 0 : (b - a) / a * 100;
+        }
+
+        boolean isErrors() {
+            return metric.equals("errors");
+        }
+
+        /**
+         * Significant only if the interval excludes zero and, where there is one, the rank test agrees.
+         * Any difference in errors counts.
+         **/
+        String verdict(double alpha) {
+            if (isErrors())
+                return a == b ? "no difference" : b > a ? "B worse" : "B better";
+
+            boolean excludesZero = low > 0 || high < 0;
+            if (!excludesZero || (!Double.isNaN(p) && p >= alpha))
+                return "no significant difference";
+
+            boolean bHigher = b > a;
+            return bHigher == higherIsBetter ? "B better" : "B worse";
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package load;
+
+import hook.TestBase;
+import io.restassured.response.Response;
+import utilities.Environment;
+import utilities.FlightRecording;
+import utilities.HarnessLog;
+import utilities.LatencyHistogram;
+import utilities.PayloadCache;
+import utilities.ResourceSampler;
+import utilities.Shard;
+import utilities.TestUtililities;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static utilities.TestUtililities.*;
+
+/**
+ * This class measures how the latency of the differ scales with the number of IDs it stores.
+ *
+ * It populates the differ with new IDs (left and right side each) through {@link PipelinedLoadClient},
+ * up to each checkpoint in turn. At the start and after every checkpoint it runs the workflows of
+ * DifferServiceTest through the same {@link TestUtililities} helpers: equal sides, sides of different length
+ * and sides with different characters, each on a new ID, verifying the diff type. It also diffs a sample
+ * of the populated IDs, which are spread over the whole store.
+ *
+ * IDs with a side the differ did not store are counted as load errors, not as stored IDs.
+ * The latencies at each checkpoint are written to test-output/bulk-load-report.csv.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.BulkLoader
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * BULK_CHECKPOINTS=10000,100000,1000000 - numbers of stored IDs at which the latencies are measured
+ * BULK_PAYLOAD_LENGTHS=100 - side lengths before Base64 encoding of the populated IDs, cycled through
+ * BULK_IO_THREADS=2 - threads of the loader
+ * BULK_CONNECTIONS=8 - connections of the loader
+ * BULK_DEPTH=64 - requests in flight per connection of the loader
+ * BULK_MEASURE_ROUNDS=300 - workflows measured at each checkpoint
+ * BULK_MEASURE_PAYLOAD_LENGTH=100 - side length before Base64 encoding of the measured workflows
+ *
+ * @author Adebowale Otulana
+ */
+public class BulkLoader {
+
+    public static final Path REPORT_FILE = Paths.get("test-output", "bulk-load-report.csv");
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final int BODIES_PER_LENGTH = 32;
+    private static final int SAMPLED_IDS = 1000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HarnessLog.toConsole();
+        String[] checkpoints = Environment.get("BULK_CHECKPOINTS", "10000,100000,1000000").split(",");
+        String[] payloadLengths = Environment.get("BULK_PAYLOAD_LENGTHS", "100").split(",");
+        int ioThreads = Integer.parseInt(Environment.get("BULK_IO_THREADS", "2"));
+        int connections = Integer.parseInt(Environment.get("BULK_CONNECTIONS", "8"));
+        int depth = Integer.parseInt(Environment.get("BULK_DEPTH", "64"));
+        int rounds = Integer.parseInt(Environment.get("BULK_MEASURE_ROUNDS", "300"));
+        int measurePayloadLength = Integer.parseInt(Environment.get("BULK_MEASURE_PAYLOAD_LENGTH", "100"));
+
+        new TestBase().initializeBaseURI();
+        TestUtililities.logDiffResponses = false;
+
+        URI host = URI.create(Environment.get("HOST"));
+        String hostHeader = PipelinedLoadClient.hostHeader(host);
+        Random random = new Random();
+        byte[][] bodies = bodies(payloadLengths, random);
+
+        PipelinedLoadClient client = new PipelinedLoadClient(host, ioThreads, connections, depth);
+        Files.createDirectories(REPORT_FILE.getParent());
+        FlightRecording.startIfConfigured("bulk-load");
+        ResourceSampler.startIfConfigured("bulk-load");
+
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(REPORT_FILE))) {
+            report.println("stored_ids,load_ids_per_s,load_errors,side_p50_ms,side_p99_ms,diff_p50_ms,diff_p99_ms,"
+                    + "stored_diff_p50_ms,stored_diff_p99_ms,unexpected_diffs");
+
+            List<Long> stored = new ArrayList<>();
+            long storedIDs = 0;
+            measure(report, storedIDs, 0, 0, stored, rounds, measurePayloadLength, random);
+
+            for (String checkpoint : checkpoints) {
+                long target = Long.parseLong(checkpoint.trim());
+                if (target <= storedIDs)
+                    continue;
+
+                //Spread the new IDs over the connections, each keeping a sample of the IDs it populated
+                long ids = target - storedIDs;
+                int sources = client.connections();
+                int sampleEvery = (int) Math.max(1, ids / SAMPLED_IDS);
+                List<BulkRequestSource> created = new ArrayList<>();
+
+                PipelinedLoadClient.Result load = client.run(() -> {
+                    long share = ids / sources + (created.size() < ids % sources ? 1 : 0);
+                    BulkRequestSource source = new BulkRequestSource(hostHeader, bodies, share, sampleEvery);
+                    created.add(source);
+                    return source;
+                }, Long.MAX_VALUE);
+
+                long populated = 0;
+                for (BulkRequestSource source : created) {
+                    stored.addAll(source.sample());
+                    populated += source.stored();
+                }
+
+                long loadErrors = load.errors.sum();
+                for (int i = 0; i < load.statusClasses.length; i++) {
+                    if (i != 2)
+                        loadErrors += load.statusClasses[i].sum();
+                }
+
+                storedIDs += populated;
+                HarnessLog.log(String.format(Locale.ROOT, "Populated %d of %d IDs in %.1fs", populated, ids, load.seconds()));
+                measure(report, storedIDs, populated / load.seconds(), loadErrors, stored, rounds, measurePayloadLength, random);
+            }
+        } finally {
+            FlightRecording.stop();
+            ResourceSampler.stop();
+        }
+        HarnessLog.log("Bulk load report written to " + REPORT_FILE);
+        HarnessLog.log("Payload cache: " + PayloadCache.summary());
+    }
+
+    /**
+     * Runs the DifferServiceTest workflows and diffs stored IDs, and writes the latencies as one line of the report
+     **/
+    private static void measure(PrintWriter report, long storedIDs, double loadRate, long loadErrors, List<Long> stored,
+                                int rounds, int payloadLength, Random random) {
+        LatencyHistogram side = new LatencyHistogram();
+        LatencyHistogram diff = new LatencyHistogram();
+        LatencyHistogram storedDiff = new LatencyHistogram();
+        int unexpected = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            DiffWorkflow different = DiffWorkflow.random(payloadLength, random);
+            String left = different.getLeft();
+            long id = Shard.randomID();
+
+            //Equal sides, sides of different length and sides with different characters, in turn
+            String right;
+            String expectedType;
+            if (round % 3 == 0) {
+                right = left;
+                expectedType = "EQUAL";
+            } else if (round % 3 == 1) {
+                right = left.substring(0, left.length() / 2);
+                expectedType = "DIFFERENT_LENGTH";
+            } else {
+                right = different.getRight();
+                expectedType = left.equals(right) ? "EQUAL" : "DIFFERENT_CHARS";
+            }
+
+            long start = System.nanoTime();
+            setSideValue(id, "left", oneOffJsonBody(left));
+            side.recordSince(start);
+
+            start = System.nanoTime();
+            setSideValue(id, "right", oneOffJsonBody(right));
+            side.recordSince(start);
+
+            start = System.nanoTime();
+            Response response = differentiateSides(id);
+            diff.recordSince(start);
+
+            if (response.getStatusCode() != 200 || !expectedType.equals(response.jsonPath().getString("type")))
+                unexpected++;
+
+            //Diff an ID populated by the loader, somewhere in the store
+            if (!stored.isEmpty()) {
+                long storedID = stored.get(random.nextInt(stored.size()));
+                start = System.nanoTime();
+                Response storedResponse = differentiateSides(storedID);
+                storedDiff.recordSince(start);
+
+                if (storedResponse.getStatusCode() != 200)
+                    unexpected++;
+            }
+        }
+
+        String line = String.format(Locale.ROOT, "%d,%.0f,%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d",
+                storedIDs, loadRate, loadErrors,
+                side.percentile(50) / 1000.0, side.percentile(99) / 1000.0,
+                diff.percentile(50) / 1000.0, diff.percentile(99) / 1000.0,
+                storedDiff.percentile(50) / 1000.0, storedDiff.percentile(99) / 1000.0,
+                unexpected);
+        report.println(line);
+        report.flush();
+        HarnessLog.log(line);
+    }
+
+    /**
+     * @return Encoded JSON side bodies of random text, BODIES_PER_LENGTH for each length in turn
+     **/
+    private static byte[][] bodies(String[] payloadLengths, Random random) {
+        byte[][] bodies = new byte[payloadLengths.length * BODIES_PER_LENGTH][];
+
+        for (int i = 0; i < bodies.length; i++) {
+            int length = Integer.parseInt(payloadLengths[i % payloadLengths.length].trim());
+            char[] value = new char[length];
+            for (int j = 0; j < length; j++)
+                value[j] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+
+            bodies[i] = oneOffJsonBody(new String(value));
+        }
+        return bodies;
+    }
+}
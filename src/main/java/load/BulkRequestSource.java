@@ -0,0 +1,103 @@
+package load;
+
+import utilities.Shard;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class generates the side requests that populate the differ with new IDs for {@link PipelinedLoadClient}:
+ * left and right of a new random ID, then of the next one, until the given number of IDs is sent.
+ * Requests are serialized as they are needed, so millions of IDs never have to be held in memory.
+ * An ID only counts as stored once both of its sides were answered with 200.
+ *
+ * Not thread safe: every connection of the client gets its own source.
+ *
+ * @author Adebowale Otulana
+ */
+public class BulkRequestSource implements PipelinedLoadClient.RequestSource {
+
+    private final String host;
+    private final byte[][] bodies;
+    private final int sampleEvery;
+    private final List<Long> sample = new ArrayList<>();
+
+    //IDs whose right side is in flight, oldest first
+    private final ArrayDeque<Long> unanswered = new ArrayDeque<>();
+
+    private long remaining;
+    private long sent;
+    private long id;
+    private boolean rightPending;
+    private long answered;
+    private boolean leftStored;
+    private long stored;
+
+    /**
+     * @param host
+     *        Value of the Host header, e.g. localhost:8081
+     *
+     * @param bodies
+     *        Encoded JSON side bodies, cycled through; the right side of an ID gets the body after the left one
+     *
+     * @param ids
+     *        Number of IDs to populate
+     *
+     * @param sampleEvery
+     *        Every how many stored IDs one is kept in {@link #sample()}
+     **/
+    public BulkRequestSource(String host, byte[][] bodies, long ids, int sampleEvery) {
+        this.host = host;
+        this.bodies = bodies;
+        this.remaining = ids;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    public SerializedRequest next() {
+        if (rightPending) {
+            rightPending = false;
+            unanswered.add(id);
+            return SerializedRequest.post(host, DiffWorkflow.sidePath(id, "right"), bodies[(int) ((sent + 1) % bodies.length)]);
+        }
+
+        if (remaining == 0)
+            return null;
+
+        remaining--;
+        sent++;
+        id = Shard.randomID();
+        rightPending = true;
+        return SerializedRequest.post(host, DiffWorkflow.sidePath(id, "left"), bodies[(int) (sent % bodies.length)]);
+    }
+
+    /**
+     * Left and right of an ID are sent one after the other, so their responses arrive one after the other
+     **/
+    @Override
+    public void completed(SerializedRequest request, int status) {
+        boolean ok = status == 200;
+        if (answered++ % 2 == 0) {
+            leftStored = ok;
+            return;
+        }
+
+        long answeredID = unanswered.remove();
+        if (leftStored && ok && ++stored % sampleEvery == 0)
+            sample.add(answeredID);
+    }
+
+    /**
+     * @return Some of the stored IDs, to diff them later. Read it once the client has finished.
+     **/
+    public List<Long> sample() {
+        return sample;
+    }
+
+    /**
+     * @return The IDs whose sides were both stored. Read it once the client has finished.
+     **/
+    public long stored() {
+        return stored;
+    }
+}
@@ -0,0 +1,121 @@
+package load;
+
+import hook.TestBase;
+import io.restassured.RestAssured;
+import io.restassured.config.DecoderConfig;
+import io.restassured.response.Response;
+import utilities.Compression;
+import utilities.Environment;
+import utilities.HarnessLog;
+import utilities.LatencyHistogram;
+import utilities.Shard;
+import utilities.TestUtililities;
+import utilities.WireCounter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+import static utilities.TestUtililities.jsonBody;
+import static utilities.TestUtililities.setSideValue;
+
+/**
+ * This class measures what compressing side requests saves on the wire and what it costs in latency.
+ *
+ * For every payload size and content coding it sends the same side requests and records the request
+ * and response bytes on the wire, status lines and headers included, and the request latency.
+ * The requests are sent with {@link TestUtililities#setSideValue(long, String, byte[], Compression)} over
+ * connections that count their bytes (see {@link WireCounter}), so the counts are what was sent
+ * and received, before any decompression. The uncompressed baseline accepts the identity coding only.
+ * Every request must succeed: a differ that rejects a content coding has nothing to compare.
+ * The report is written to test-output/compression-report.csv.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.CompressionBenchmark
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * COMPRESSION_PAYLOAD_SIZES=1024,16384,131072,1048576 - side lengths before Base64 encoding
+ * COMPRESSION_REQUESTS=50 - requests per payload size and content coding
+ *
+ * @author Adebowale Otulana
+ */
+public class CompressionBenchmark {
+
+    public static final Path REPORT_FILE = Paths.get("test-output", "compression-report.csv");
+
+    private static final String[] WORDS = {"differ", "left", "right", "side", "value", "payload", "encoded",
+            "regression", "request", "response", "latency", "the", "of", "and", "a", "to", "in"};
+
+    public static void main(String[] args) throws IOException {
+        HarnessLog.toConsole();
+        String[] payloadSizes = Environment.get("COMPRESSION_PAYLOAD_SIZES", "1024,16384,131072,1048576").split(",");
+        int requests = Integer.parseInt(Environment.get("COMPRESSION_REQUESTS", "50"));
+
+        new TestBase().initializeBaseURI();
+        //Count the bytes on the wire; the responses are not decoded, so RestAssured asks for no other coding
+        RestAssured.config = RestAssured.config().httpClient(WireCounter.httpClientConfig())
+                .decoderConfig(DecoderConfig.decoderConfig().noContentDecoders());
+
+        Random random = new Random(42);
+        Files.createDirectories(REPORT_FILE.getParent());
+
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(REPORT_FILE))) {
+            report.println("payload_length,compression,request_bytes,response_bytes,ratio,p50_ms,p99_ms,mean_ms");
+
+            for (String payloadSize : payloadSizes) {
+                byte[] body = jsonBody(text(Integer.parseInt(payloadSize.trim()), random));
+                long uncompressedBytes = 0;
+
+                for (Compression compression : Compression.values()) {
+                    long requestBytes = 0;
+                    long responseBytes = 0;
+                    LatencyHistogram latency = new LatencyHistogram();
+
+                    for (int i = 0; i < requests; i++) {
+                        long sent = WireCounter.sent();
+                        long received = WireCounter.received();
+                        long start = System.nanoTime();
+                        Response response = setSideValue(Shard.randomID(), "left", body, compression);
+                        //Reading the body releases the connection and counts the whole response
+                        response.asByteArray();
+                        latency.recordSince(start);
+                        int status = response.getStatusCode();
+
+                        if (status != 200)
+                            throw new IllegalStateException(compression + " side request answered with " + status
+                                    + ", the differ does not decode this content coding");
+                        requestBytes += WireCounter.sent() - sent;
+                        responseBytes += WireCounter.received() - received;
+                    }
+
+                    //Compression.NONE comes first, the other codings are compared with it
+                    if (compression == Compression.NONE)
+                        uncompressedBytes = requestBytes + responseBytes;
+
+                    String line = String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%.2f,%.2f,%.2f",
+                            payloadSize.trim(), compression, requestBytes / requests, responseBytes / requests,
+                            (double) (requestBytes + responseBytes) / uncompressedBytes,
+                            latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0,
+                            latency.mean() / 1000.0);
+                    report.println(line);
+                    HarnessLog.log(line);
+                }
+            }
+        }
+        HarnessLog.log("Compression report written to " + REPORT_FILE);
+    }
+
+    /**
+     * Generates text-like data, which compresses like typical differ inputs rather than like random bytes.
+     **/
+    private static String text(int length, Random random) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length)
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,242 @@
+package load;
+
+import com.google.gson.Gson;
+import hook.TestBase;
+import io.restassured.response.Response;
+import responseModels.LengthTypeDetailResponse;
+import utilities.DiffRanges;
+import utilities.Endpoints;
+import utilities.Environment;
+import utilities.HarnessLog;
+import utilities.Shard;
+import utilities.TestUtililities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+import static io.restassured.RestAssured.given;
+import static utilities.TestUtililities.encodeInBase64;
+
+/**
+ * This class measures how DIFFERENT_CHARS details are read and how large they get.
+ *
+ * 1. Parsing: for detail strings with more and more ranges, it compares reading the ranges with
+ *    {@link DiffRanges#parse} against deserializing the response and comparing the whole detail string,
+ *    the way the functional tests did. Each approach is warmed up until its parse time is steady,
+ *    so the JIT has compiled the parser, then it records the time and the bytes allocated per parse.
+ *    The report is written to test-output/detail-parser-benchmark.csv.
+ * 2. Growth: for sides that differ in more and more characters, it sends them to the differ
+ *    and records the size of the diff response it returns and the number of ranges in its detail.
+ *    The report is written to test-output/detail-growth.csv.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.DetailParserBenchmark
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * DETAIL_BENCHMARK_RANGES=1000,100000,1000000,3000000 - ranges of the generated details
+ * DETAIL_BENCHMARK_ITERATIONS=20 - measured parses per detail and approach
+ * DETAIL_BENCHMARK_WARMUP_SECONDS=30 - longest warm-up per detail and approach; after at least a second it ends
+ *   earlier, once the mean time of 5 parses has been within 5% of the one of the 5 parses before three times in a row
+ * DETAIL_GROWTH_LENGTH=100000 - side length before Base64 encoding
+ * DETAIL_GROWTH_DIVERGENCE=0.0001,0.001,0.01,0.1,0.5 - share of the characters of the right side that are changed
+ *
+ * @author Adebowale Otulana
+ */
+public class DetailParserBenchmark {
+
+    public static final Path PARSER_REPORT_FILE = Paths.get("test-output", "detail-parser-benchmark.csv");
+    public static final Path GROWTH_REPORT_FILE = Paths.get("test-output", "detail-growth.csv");
+
+    private static final String PREFIX = "Values are different on char(s)";
+
+    private static final int WARMUP_BATCH = 5;
+    private static final double STEADY_CHANGE = 0.05;
+    private static final int STEADY_BATCHES = 3;
+    private static final long MIN_WARMUP_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        HarnessLog.toConsole();
+        String[] rangeCounts = Environment.get("DETAIL_BENCHMARK_RANGES", "1000,100000,1000000,3000000").split(",");
+        int iterations = Integer.parseInt(Environment.get("DETAIL_BENCHMARK_ITERATIONS", "20"));
+        long warmupNanos = Long.parseLong(Environment.get("DETAIL_BENCHMARK_WARMUP_SECONDS", "30")) * 1_000_000_000L;
+        int sideLength = Integer.parseInt(Environment.get("DETAIL_GROWTH_LENGTH", "100000"));
+        String[] divergences = Environment.get("DETAIL_GROWTH_DIVERGENCE", "0.0001,0.001,0.01,0.1,0.5").split(",");
+
+        Files.createDirectories(PARSER_REPORT_FILE.getParent());
+        Random random = new Random(39);
+
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(PARSER_REPORT_FILE))) {
+            report.println("ranges,body_bytes,approach,warmup_parses,steady,mean_ms,min_ms,mb_per_s,allocated_bytes_per_parse");
+
+            for (String rangeCount : rangeCounts) {
+                DiffRanges expected = randomRanges(Integer.parseInt(rangeCount.trim()), random);
+                String expectedDetail = PREFIX + " " + format(expected) + ".";
+                byte[] body = ("{\"type\":\"DIFFERENT_CHARS\",\"detail\":\"" + expectedDetail + "\"}")
+                        .getBytes(StandardCharsets.UTF_8);
+
+                measure(report, expected.size(), body, "streaming ranges", iterations, warmupNanos, () -> {
+                    if (DiffRanges.parse(new ByteArrayInputStream(body)).mismatch(expected) != -1)
+                        throw new IllegalStateException("Streaming parser read different ranges");
+                });
+
+                measure(report, expected.size(), body, "detail string", iterations, warmupNanos, () -> {
+                    //Gson is the mapper RestAssured picks for response.as() in this project
+                    String json = new String(body, StandardCharsets.UTF_8);
+                    LengthTypeDetailResponse response = new Gson().fromJson(json, LengthTypeDetailResponse.class);
+                    if (!response.getDetail().equals(expectedDetail))
+                        throw new IllegalStateException("Detail string is not the expected one");
+                });
+            }
+        }
+        HarnessLog.log("Parser benchmark written to " + PARSER_REPORT_FILE);
+
+        new TestBase().initializeBaseURI();
+
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(GROWTH_REPORT_FILE))) {
+            report.println("side_length,divergence,base64_length,ranges,different_chars,response_bytes,response_bytes_per_base64_char");
+
+            for (String divergence : divergences) {
+                double share = Double.parseDouble(divergence.trim());
+                char[] left = new char[sideLength];
+                char[] right = new char[sideLength];
+                for (int i = 0; i < sideLength; i++) {
+                    left[i] = (char) ('a' + random.nextInt(26));
+                    right[i] = random.nextDouble() < share ? (char) ('a' + (left[i] - 'a' + 1 + random.nextInt(25)) % 26) : left[i];
+                }
+                String leftValue = encodeInBase64(new String(left));
+                String rightValue = encodeInBase64(new String(right));
+
+                long id = Shard.randomID();
+                TestUtililities.setSideValue(id, "left", TestUtililities.oneOffJsonBody(new String(left)));
+                TestUtililities.setSideValue(id, "right", TestUtililities.oneOffJsonBody(new String(right)));
+
+                //The response is measured as the differ sends it, without building the detail as a string
+                Response response = given().pathParam("id", id).when().get(Endpoints.GET_DIFF).then().extract().response();
+                CountingInputStream body = new CountingInputStream(response.asInputStream());
+                DiffRanges ranges = DiffRanges.parse(body);
+                body.close();
+
+                String line = String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%d,%.4f",
+                        sideLength, divergence.trim(), leftValue.length(), ranges.size(), ranges.differentChars(),
+                        body.count, (double) body.count / leftValue.length());
+                report.println(line);
+                HarnessLog.log(line);
+            }
+        }
+        HarnessLog.log("Detail growth written to " + GROWTH_REPORT_FILE);
+    }
+
+    private static void measure(PrintWriter report, int ranges, byte[] body, String approach, int iterations,
+                                long warmupNanos, Parse parse) throws IOException {
+        //Warm up in batches until the batches take about as long as the ones before
+        long warmupStart = System.nanoTime();
+        long previousBatch = Long.MAX_VALUE;
+        int warmupParses = 0;
+        int steadyBatches = 0;
+        boolean steady = false;
+
+        while (!steady && System.nanoTime() - warmupStart < warmupNanos) {
+            long start = System.nanoTime();
+            for (int i = 0; i < WARMUP_BATCH; i++)
+                parse.run();
+            long batch = System.nanoTime() - start;
+
+            warmupParses += WARMUP_BATCH;
+            steadyBatches = Math.abs(batch - previousBatch) <= STEADY_CHANGE * previousBatch ? steadyBatches + 1 : 0;
+            previousBatch = batch;
+            steady = steadyBatches >= STEADY_BATCHES && System.nanoTime() - warmupStart >= MIN_WARMUP_NANOS;
+        }
+        if (!steady)
+            HarnessLog.log("Parse time of " + approach + " with " + ranges + " ranges was not steady after the warm-up");
+
+        //Garbage of the warm-up would be collected during the measured parses
+        System.gc();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long totalNanos = 0;
+        long minNanos = Long.MAX_VALUE;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            parse.run();
+            long nanos = System.nanoTime() - start;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+        }
+        long allocated = (threads.getThreadAllocatedBytes(thread) - allocatedBefore) / iterations;
+
+        double meanMillis = totalNanos / 1e6 / iterations;
+        String line = String.format(Locale.ROOT, "%d,%d,%s,%d,%b,%.2f,%.2f,%.1f,%d",
+                ranges, body.length, approach, warmupParses, steady, meanMillis, minNanos / 1e6, body.length / 1e6 / (meanMillis / 1000), allocated);
+        report.println(line);
+        HarnessLog.log(line);
+    }
+
+    /**
+     * Ranges of one to four characters with gaps of one to four characters, as a large diff of text would have
+     **/
+    private static DiffRanges randomRanges(int count, Random random) {
+        DiffRanges ranges = new DiffRanges(count);
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            long first = offset + 1 + random.nextInt(4);
+            long last = first + random.nextInt(4);
+            ranges.add(first, last);
+            offset = last + 1;
+        }
+        return ranges;
+    }
+
+    private static String format(DiffRanges ranges) {
+        StringBuilder detail = new StringBuilder(ranges.size() * 12);
+        for (int i = 0; i < ranges.size(); i++)
+            detail.append(i == 0 ? "" : " ").append(ranges.describe(i));
+        return detail.toString();
+    }
+
+    private interface Parse {
+        void run() throws IOException;
+    }
+
+    private static final class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            int c = in.read();
+            if (c != -1)
+                count++;
+            return c;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        public void close() throws IOException {
+            //Count the rest of the body, e.g. after the detail
+            byte[] rest = new byte[8192];
+            while (read(rest, 0, rest.length) >= 0) {
+                //Discard
+            }
+            in.close();
+        }
+    }
+}
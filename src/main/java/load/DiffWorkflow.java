@@ -0,0 +1,202 @@
+package load;
+
+import hook.TestBase;
+import io.restassured.response.Response;
+import utilities.Endpoints;
+import utilities.HarnessMetrics;
+import utilities.Shard;
+
+import java.net.URI;
+import java.util.Random;
+
+import static utilities.TestUtililities.*;
+
+/**
+ * This class describes one diff workflow: set the left side, set the right side, diff them.
+ * It is the unit of work of the load modes and runs through the same
+ * {@link utilities.TestUtililities} helpers as the functional tests.
+ *
+ * @author Adebowale Otulana
+ */
+public class DiffWorkflow {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final long id;
+    private final String left;
+    private final String right;
+    private final boolean oneOff;
+
+    public DiffWorkflow(long id, String left, String right) {
+        this(id, left, right, false);
+    }
+
+    /**
+     * @param oneOff
+     *        true if the sides are sent for this workflow only, so their bodies are not cached
+     **/
+    private DiffWorkflow(long id, String left, String right, boolean oneOff) {
+        this.id = id;
+        this.left = left;
+        this.right = right;
+        this.oneOff = oneOff;
+    }
+
+    /**
+     * Creates a workflow for a new random ID, with sides of the given length
+     * that differ in roughly one character out of ten.
+     * Random sides are hardly ever sent twice, so their bodies bypass the {@link utilities.PayloadCache}.
+     *
+     * @param payloadLength
+     *        Length of each side before Base64 encoding
+     **/
+    public static DiffWorkflow random(int payloadLength, Random random) {
+        char[] left = new char[payloadLength];
+        char[] right = new char[payloadLength];
+
+        for (int i = 0; i < payloadLength; i++) {
+            left[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            right[i] = random.nextInt(10) == 0 ? ALPHABET.charAt(random.nextInt(ALPHABET.length())) : left[i];
+        }
+        return new DiffWorkflow(Shard.randomID(), new String(left), new String(right), true);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getLeft() {
+        return left;
+    }
+
+    public String getRight() {
+        return right;
+    }
+
+    /**
+     * @return The JSON request body of the left side
+     **/
+    public byte[] getLeftBody() {
+        return body(left);
+    }
+
+    /**
+     * @return The JSON request body of the right side
+     **/
+    public byte[] getRightBody() {
+        return body(right);
+    }
+
+    /**
+     * @return The JSON request body for a side value, as the functional tests send it,
+     * from the {@link utilities.PayloadCache}
+     **/
+    public static byte[] encodedBody(String value) {
+        return jsonBody(value);
+    }
+
+    private byte[] body(String value) {
+        return oneOff ? oneOffJsonBody(value) : jsonBody(value);
+    }
+
+    /**
+     * Serializes the workflow into raw HTTP/1.1 requests for {@link PipelinedLoadClient}:
+     * set the left side, set the right side, diff them, exactly as {@link #run} sends them.
+     *
+     * @param host
+     *        Value of the Host header, e.g. localhost:8081
+     *
+     * @return The three requests, in the order they must be sent
+     **/
+    public SerializedRequest[] serialize(String host) {
+        return new SerializedRequest[] {
+                SerializedRequest.post(host, sidePath("left"), getLeftBody()),
+                SerializedRequest.post(host, sidePath("right"), getRightBody()),
+                SerializedRequest.get(host, TestBase.BASE_PATH + Endpoints.GET_DIFF.replace("{id}", String.valueOf(id)))
+        };
+    }
+
+    private String sidePath(String side) {
+        return sidePath(id, side);
+    }
+
+    /**
+     * @return The request path of a side request, as {@link SerializedRequest}s need it
+     **/
+    static String sidePath(long id, String side) {
+        return TestBase.BASE_PATH + Endpoints.POST_SIDE
+                .replace("{id}", String.valueOf(id))
+                .replace("{side}", side);
+    }
+
+    /**
+     * Runs the workflow and records its latencies.
+     *
+     * @param stats
+     *        Where the latencies and errors are recorded
+     *
+     * @param intendedStartNanos
+     *        When the workflow should have started. Open-loop load modes pass the scheduled time,
+     *        so time spent waiting for a free thread counts towards the workflow latency.
+     *
+     * @return true if every request of the workflow succeeded
+     **/
+    public boolean run(WorkflowStats stats, long intendedStartNanos) {
+        return run(stats, intendedStartNanos, null);
+    }
+
+    /**
+     * Runs the workflow against a given differ instance and records its latencies.
+     *
+     * @param stats
+     *        Where the latencies and errors are recorded
+     *
+     * @param intendedStartNanos
+     *        When the workflow should have started
+     *
+     * @param host
+     *        Base URI of the differ instance, null for HOST
+     *
+     * @return true if every request of the workflow succeeded
+     **/
+    public boolean run(WorkflowStats stats, long intendedStartNanos, URI host) {
+        HarnessMetrics.workflowStarted();
+        try {
+            long start = System.nanoTime();
+            Response leftResponse = setSide(host, "left", getLeftBody());
+            stats.sideLatency.recordSince(start);
+
+            start = System.nanoTime();
+            Response rightResponse = setSide(host, "right", getRightBody());
+            stats.sideLatency.recordSince(start);
+
+            start = System.nanoTime();
+            Response diffResponse = host == null ? differentiateSides(id) : differentiateSides(host, id);
+            stats.diffLatency.recordSince(start);
+
+            stats.workflowLatency.recordSince(intendedStartNanos);
+
+            boolean succeeded = leftResponse.getStatusCode() == 200
+                    && rightResponse.getStatusCode() == 200
+                    && diffResponse.getStatusCode() == 200;
+
+            if (succeeded)
+                stats.successes.increment();
+            else
+                stats.errors.increment();
+
+            return succeeded;
+        } catch (Exception e) {
+            //RestAssured rethrows a ConnectException undeclared
+            stats.workflowLatency.recordSince(intendedStartNanos);
+            stats.errors.increment();
+            return false;
+        } finally {
+            HarnessMetrics.workflowFinished();
+        }
+    }
+
+    private Response setSide(URI host, String side, byte[] body) {
+        return host == null ? setSideValue(id, side, body) : setSideValue(host, id, side, body);
+    }
+}
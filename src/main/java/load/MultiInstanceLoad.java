@@ -0,0 +1,167 @@
+package load;
+
+import hook.TestBase;
+import utilities.DifferInstances;
+import utilities.Environment;
+import utilities.FlightRecording;
+import utilities.HarnessLog;
+import utilities.PayloadCache;
+import utilities.ResourceSampler;
+import utilities.TestUtililities;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures how the differ scales over several instances and whether ID affinity matters.
+ *
+ * For one instance, then the first two of HOSTS and so on up to all of them, and for each balancing policy,
+ * it keeps MULTI_INSTANCE_CONCURRENCY workflows (left, right, diff) in flight per instance for a window.
+ * The requests are spread by the {@link utilities.BalancingFilter}, so without ID affinity the left side,
+ * the right side and the diff of an ID can hit different instances; when the instances do not share
+ * their sides, those workflows fail and show up as errors.
+ *
+ * Every instance is warmed up first, together, then one instance alone is measured once as the baseline;
+ * with one instance every policy sends the same requests to it.
+ *
+ * The throughput, latency and errors of each step, overall and per instance, are written to
+ * test-output/multi-instance-report.csv. The throughput of a step counts successful workflows per second,
+ * the throughput of an instance requests per second. The scaling efficiency of a step is its throughput divided by
+ * the throughput of the baseline times the number of instances, so failed workflows lower it.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.MultiInstanceLoad -DHOSTS=http://localhost:8081,http://localhost:8082
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * HOSTS - comma separated base URIs of the differ instances, required
+ * MULTI_INSTANCE_POLICIES=round-robin,least-outstanding,id-affinity - policies to compare
+ * MULTI_INSTANCE_WINDOW_SECONDS=10 - measured time of each step
+ * MULTI_INSTANCE_WARMUP_SECONDS=2 - unmeasured time before each step; the common warm-up of all instances takes five times as long
+ * MULTI_INSTANCE_CONCURRENCY=8 - workflows in flight per instance
+ * MULTI_INSTANCE_PAYLOAD_LENGTH=100 - length of each side before Base64 encoding
+ *
+ * @author Adebowale Otulana
+ */
+public class MultiInstanceLoad {
+
+    public static final Path REPORT_FILE = Paths.get("test-output", "multi-instance-report.csv");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HarnessLog.toConsole();
+        List<URI> hosts = DifferInstances.hosts();
+        if (hosts.isEmpty())
+            throw new IllegalArgumentException("HOSTS is not configured, set it to the base URIs of the differ instances");
+
+        String[] policies = Environment.get("MULTI_INSTANCE_POLICIES", "round-robin,least-outstanding,id-affinity").split(",");
+        long windowMillis = Long.parseLong(Environment.get("MULTI_INSTANCE_WINDOW_SECONDS", "10")) * 1000;
+        long warmupMillis = Long.parseLong(Environment.get("MULTI_INSTANCE_WARMUP_SECONDS", "2")) * 1000;
+        int concurrency = Integer.parseInt(Environment.get("MULTI_INSTANCE_CONCURRENCY", "8"));
+        int payloadLength = Integer.parseInt(Environment.get("MULTI_INSTANCE_PAYLOAD_LENGTH", "100"));
+
+        new TestBase().initializeBaseURI();
+        TestUtililities.logDiffResponses = false;
+
+        DifferInstances configured = DifferInstances.current();
+
+        Files.createDirectories(REPORT_FILE.getParent());
+        FlightRecording.startIfConfigured("multi-instance");
+        ResourceSampler.startIfConfigured("multi-instance");
+
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(REPORT_FILE))) {
+            report.println("instances,policy,instance,requests,throughput_per_s,p50_ms,p99_ms,max_ms,errors,scaling_efficiency");
+
+            //Warm up every instance the same way before any of them is measured
+            DifferInstances.use(new DifferInstances(hosts, DifferInstances.Policy.ROUND_ROBIN));
+            closedLoop(hosts.size() * concurrency, warmupMillis * 5, payloadLength);
+
+            DifferInstances single = new DifferInstances(hosts.subList(0, 1), DifferInstances.Policy.ROUND_ROBIN);
+            DifferInstances.use(single);
+            WorkflowStats baseline = closedLoop(concurrency, windowMillis, payloadLength);
+            if (baseline.throughput() == 0)
+                throw new IllegalStateException("No workflow succeeded on " + hosts.get(0) + ": " + baseline.summary());
+            report(report, 1, "any", single, baseline, baseline.throughput());
+
+            for (int count = 2; count <= hosts.size(); count++) {
+                for (String name : policies) {
+                    DifferInstances.Policy policy = DifferInstances.Policy.parse(name);
+                    List<URI> used = hosts.subList(0, count);
+
+                    //Warm up with instances of their own, so the measured ones start from zero
+                    DifferInstances.use(new DifferInstances(used, policy));
+                    closedLoop(count * concurrency, warmupMillis, payloadLength);
+
+                    DifferInstances instances = new DifferInstances(used, policy);
+                    DifferInstances.use(instances);
+                    WorkflowStats stats = closedLoop(count * concurrency, windowMillis, payloadLength);
+                    report(report, count, policy.toString(), instances, stats, baseline.throughput());
+                }
+            }
+        } finally {
+            DifferInstances.use(configured);
+            FlightRecording.stop();
+            ResourceSampler.stop();
+        }
+        HarnessLog.log("Multi-instance report written to " + REPORT_FILE);
+        HarnessLog.log("Payload cache: " + PayloadCache.summary());
+    }
+
+    /**
+     * Writes the rows of one step, overall and per instance, and logs its summary
+     *
+     * @param baseline
+     *        Successful workflows per second of one instance
+     **/
+    private static void report(PrintWriter report, int count, String policy, DifferInstances instances,
+                               WorkflowStats stats, double baseline) {
+        double efficiency = stats.throughput() / (baseline * count);
+
+        report.println(String.format(Locale.ROOT, "%d,%s,all,%d,%.1f,%.2f,%.2f,%.2f,%d,%.3f",
+                count, policy, stats.workflowLatency.count(), stats.throughput(),
+                stats.workflowLatency.percentile(50) / 1000.0, stats.workflowLatency.percentile(99) / 1000.0,
+                stats.workflowLatency.max() / 1000.0, stats.errors.sum(), efficiency));
+
+        for (DifferInstances.Instance instance : instances.instances()) {
+            report.println(String.format(Locale.ROOT, "%d,%s,%s,%d,%.1f,%.2f,%.2f,%.2f,%d,",
+                    count, policy, instance.host(), instance.latency().count(), instance.throughput(),
+                    instance.latency().percentile(50) / 1000.0, instance.latency().percentile(99) / 1000.0,
+                    instance.latency().max() / 1000.0, instance.errors()));
+        }
+        report.flush();
+
+        HarnessLog.log(String.format(Locale.ROOT, "%d instances, %s: %s, scaling efficiency %.2f",
+                count, policy, stats.summary(), efficiency));
+        HarnessLog.log(instances.summary());
+    }
+
+    /**
+     * Keeps the given number of workflows in flight for the given time
+     *
+     * @return The workflows of the window; throughput counts completed workflows
+     **/
+    private static WorkflowStats closedLoop(int concurrency, long millis, int payloadLength) throws InterruptedException {
+        WorkflowStats stats = new WorkflowStats();
+        long end = System.nanoTime() + millis * 1_000_000L;
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                Random random = new Random();
+                while (System.nanoTime() < end)
+                    DiffWorkflow.random(payloadLength, random).run(stats, System.nanoTime());
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(millis + 60_000, TimeUnit.MILLISECONDS);
+        stats.finish();
+        return stats;
+    }
+}
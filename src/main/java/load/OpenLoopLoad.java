@@ -0,0 +1,89 @@
+package load;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * This class starts diff workflows at a fixed rate, whether or not earlier workflows have finished.
+ *
+ * Workflows run on a bounded pool of threads. When the differ cannot keep up,
+ * workflows queue for a thread, and because their latency is measured from the time
+ * they were scheduled, the queueing shows up in the latency instead of being hidden.
+ *
+ * @author Adebowale Otulana
+ */
+public class OpenLoopLoad implements AutoCloseable {
+
+    private final ExecutorService workers;
+
+    /**
+     * @param maxConcurrency
+     *        Maximum number of workflows in flight at the same time
+     **/
+    public OpenLoopLoad(int maxConcurrency) {
+        workers = Executors.newFixedThreadPool(maxConcurrency);
+    }
+
+    /**
+     * Starts workflows at the given rate for the given time, then waits for them to finish.
+     *
+     * @param ratePerSecond
+     *        Workflows started per second
+     *
+     * @param durationMillis
+     *        How long to keep starting workflows
+     *
+     * @param workflows
+     *        Creates the next workflow to run
+     *
+     * @return The latencies and errors of the workflows started in this window
+     **/
+    public WorkflowStats run(double ratePerSecond, long durationMillis, Supplier<DiffWorkflow> workflows)
+            throws InterruptedException {
+        WorkflowStats stats = new WorkflowStats();
+
+        long intervalNanos = Math.max(1, (long) (1e9 / ratePerSecond));
+        long durationNanos = durationMillis * 1_000_000L;
+        long count = (durationNanos + intervalNanos - 1) / intervalNanos;
+        CountDownLatch finished = new CountDownLatch((int) count);
+        long start = System.nanoTime();
+
+        for (long i = 0; i < count; i++) {
+            long next = start + i * intervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+
+            final DiffWorkflow workflow = workflows.get();
+            workers.execute(() -> {
+                try {
+                    workflow.run(stats, next);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        //Let the queued workflows finish, so they are not counted in the next window
+        finished.await();
+        stats.finish();
+
+        return stats;
+    }
+
+    /**
+     * Stops the threads, after the workflows in flight have finished
+     **/
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,710 @@
+package load;
+
+import utilities.Endpoints;
+import utilities.Environment;
+import utilities.FlightRecording;
+import utilities.HarnessLog;
+import utilities.HarnessMetrics;
+import utilities.LatencyHistogram;
+import utilities.MetricsServer;
+import utilities.PayloadCache;
+import utilities.ResourceSampler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class generates load on the differ with raw, pipelined HTTP/1.1 requests.
+ *
+ * RestAssured is built for assertions, not for load. This client sends pre-serialized
+ * {@link SerializedRequest}s over a small number of non-blocking connections, keeping up to
+ * a configurable number of requests in flight per connection (HTTP/1.1 pipelining).
+ * Each connection reuses one direct buffer for writing and one for reading, and of every response
+ * only the status line, Content-Length, Transfer-Encoding and Connection headers are parsed.
+ * The latency of a request is measured from when its last byte is written to the socket,
+ * so time spent queued behind the pipeline depth is not counted.
+ *
+ * The requests come from the same {@link DiffWorkflow} definitions the RestAssured load modes run,
+ * so functional and load scenarios send the same requests.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.PipelinedLoadClient
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * PIPELINE_IO_THREADS=2 - threads, each with its own selector and connections
+ * PIPELINE_CONNECTIONS=8 - connections in total
+ * PIPELINE_DEPTH=64 - requests in flight per connection
+ * PIPELINE_SECONDS=10 - how long to send requests
+ * PIPELINE_WORKFLOWS=10000 - distinct workflows, cycled through
+ * PIPELINE_PAYLOAD_LENGTH=100 - length of each side before Base64 encoding
+ *
+ * @author Adebowale Otulana
+ */
+public class PipelinedLoadClient {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long DRAIN_TIMEOUT_NANOS = 10_000_000_000L;
+    //Longest a selector waits, so a failure on another IO thread is noticed
+    private static final long MAX_SELECT_MILLIS = 100;
+
+    /**
+     * Supplies the requests one connection sends, in order.
+     * The requests of a workflow must come from the same source, so they are pipelined in order.
+     **/
+    public interface RequestSource {
+        /**
+         * @return The next request to send, or null when there are no more requests
+         **/
+        SerializedRequest next();
+
+        /**
+         * Called for every request of the source once it is answered or lost, in the order the requests were sent,
+         * on the thread that calls {@link #next()}
+         *
+         * @param status
+         *        HTTP status of the response, -1 if the connection closed before the response arrived
+         **/
+        default void completed(SerializedRequest request, int status) {
+        }
+    }
+
+    /**
+     * The responses, latencies and bytes of one run. Safe to record into from every IO thread.
+     **/
+    public static class Result {
+        public final Map<String, LatencyHistogram> latency = new LinkedHashMap<>();
+        public final LongAdder[] statusClasses = new LongAdder[6];
+        public final LongAdder errors = new LongAdder();
+        public final LongAdder bytesSent = new LongAdder();
+        public final LongAdder bytesReceived = new LongAdder();
+
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+        private volatile RuntimeException failure;
+
+        Result() {
+            latency.put(Endpoints.POST_SIDE, new LatencyHistogram());
+            latency.put(Endpoints.GET_DIFF, new LatencyHistogram());
+
+            for (int i = 0; i < statusClasses.length; i++)
+                statusClasses[i] = new LongAdder();
+        }
+
+        public long responses() {
+            long responses = 0;
+            for (LatencyHistogram histogram : latency.values())
+                responses += histogram.count();
+            return responses;
+        }
+
+        public double seconds() {
+            return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1e9;
+        }
+
+        public double throughput() {
+            return responses() / seconds();
+        }
+
+        public String summary() {
+            StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+                    "%d responses in %.1fs (%.0f/s), %d errors, %.1f MB sent, %.1f MB received",
+                    responses(), seconds(), throughput(), errors.sum(),
+                    bytesSent.sum() / 1e6, bytesReceived.sum() / 1e6));
+
+            for (int i = 1; i < statusClasses.length; i++) {
+                if (statusClasses[i].sum() > 0)
+                    summary.append(", ").append(i).append("xx=").append(statusClasses[i].sum());
+            }
+
+            for (Map.Entry<String, LatencyHistogram> endpoint : latency.entrySet()) {
+                LatencyHistogram histogram = endpoint.getValue();
+                summary.append(String.format(Locale.ROOT, "%n  %-12s p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                        endpoint.getKey(), histogram.percentile(50) / 1000.0, histogram.percentile(99) / 1000.0,
+                        histogram.percentile(99.9) / 1000.0, histogram.max() / 1000.0));
+            }
+            return summary.toString();
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final int ioThreads;
+    private final int connections;
+    private final int depth;
+
+    /**
+     * @param host
+     *        Base URI of the differ, e.g. http://localhost:8081
+     *
+     * @param ioThreads
+     *        Number of threads, each with its own selector
+     *
+     * @param connections
+     *        Number of connections in total, spread over the threads
+     *
+     * @param depth
+     *        Maximum requests in flight per connection
+     **/
+    public PipelinedLoadClient(URI host, int ioThreads, int connections, int depth) {
+        this.address = new InetSocketAddress(host.getHost(), port(host));
+        this.ioThreads = ioThreads;
+        this.connections = Math.max(connections, ioThreads);
+        this.depth = depth;
+    }
+
+    /**
+     * @return The number of connections, at least one per thread; {@link #run} asks for a request source for each
+     **/
+    public int connections() {
+        return connections;
+    }
+
+    /**
+     * @return The value of the Host header for the base URI, e.g. localhost:8081, without the port if it has none
+     **/
+    public static String hostHeader(URI host) {
+        return host.getPort() == -1 ? host.getHost() : host.getHost() + ":" + host.getPort();
+    }
+
+    /**
+     * @return The port of the host, else the default port of its scheme
+     **/
+    private static int port(URI host) {
+        if (host.getPort() != -1)
+            return host.getPort();
+        return "https".equalsIgnoreCase(host.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Sends requests until the sources run out or the time is up, then waits for the responses in flight.
+     *
+     * @param sources
+     *        Creates the request source of each connection
+     *
+     * @param durationMillis
+     *        How long to keep sending, Long.MAX_VALUE to send until the sources run out
+     *
+     * @return The responses, latencies and bytes of the run
+     *
+     * @throws IllegalStateException
+     *         If an IO thread failed other than with an IOException, e.g. on a response it could not parse
+     **/
+    public Result run(Supplier<RequestSource> sources, long durationMillis) throws InterruptedException {
+        //Create every source before the clock starts
+        List<List<RequestSource>> threadSources = new ArrayList<>();
+        for (int i = 0; i < ioThreads; i++) {
+            int threadConnections = connections / ioThreads + (i < connections % ioThreads ? 1 : 0);
+
+            List<RequestSource> connectionSources = new ArrayList<>();
+            for (int j = 0; j < threadConnections; j++)
+                connectionSources.add(sources.get());
+            threadSources.add(connectionSources);
+        }
+
+        Result result = new Result();
+        long deadline = durationMillis == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + durationMillis * 1_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < ioThreads; i++) {
+            List<RequestSource> connectionSources = threadSources.get(i);
+
+            Thread thread = new Thread(() -> {
+                try {
+                    new IoLoop(connectionSources, result).run(deadline);
+                } catch (IOException e) {
+                    HarnessLog.log("Load thread stopped: " + e);
+                    result.errors.increment();
+                } catch (RuntimeException e) {
+                    //A bug in the client, e.g. a response it cannot parse: the other threads stop as well
+                    result.errors.increment();
+                    result.failure = e;
+                }
+            }, "pipelined-load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        result.endNanos = System.nanoTime();
+
+        if (result.failure != null)
+            throw new IllegalStateException("Load thread failed: " + result.failure, result.failure);
+        return result;
+    }
+
+    /**
+     * One selector and the connections it serves.
+     **/
+    private final class IoLoop {
+        private final Result result;
+        private final Selector selector;
+        private final List<Connection> connections = new ArrayList<>();
+
+        IoLoop(List<RequestSource> sources, Result result) throws IOException {
+            this.result = result;
+            this.selector = Selector.open();
+
+            for (RequestSource source : sources)
+                connections.add(new Connection(this, source));
+        }
+
+        void run(long deadline) throws IOException {
+            try {
+                long drainDeadline = Long.MAX_VALUE;
+
+                while (true) {
+                    boolean stopping = isExhausted() || System.nanoTime() >= deadline;
+
+                    if (stopping && drainDeadline == Long.MAX_VALUE)
+                        drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+
+                    if (stopping && (isDrained() || System.nanoTime() >= drainDeadline) || result.failure != null)
+                        break;
+
+                    for (Connection connection : connections) {
+                        if (!stopping)
+                            connection.fill();
+                        connection.flush();
+                    }
+
+                    //Connections with unwritten bytes wait for OP_WRITE, the others for responses or the next deadline
+                    selector.select(selectMillis(stopping ? drainDeadline : deadline));
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (key.isValid() && key.isReadable())
+                            ((Connection) key.attachment()).read();
+                    }
+                    selector.selectedKeys().clear();
+                }
+
+                //Responses that never arrived are lost
+                for (Connection connection : connections)
+                    connection.abandon();
+            } finally {
+                for (Connection connection : connections)
+                    connection.channel.close();
+                selector.close();
+            }
+        }
+
+        /**
+         * @return Milliseconds to wait for the selector, rounded up so the deadline has passed when it returns
+         **/
+        private long selectMillis(long deadline) {
+            if (deadline == Long.MAX_VALUE)
+                return MAX_SELECT_MILLIS;
+            long millis = (deadline - System.nanoTime() + 999_999) / 1_000_000;
+            return Math.max(1, Math.min(millis, MAX_SELECT_MILLIS));
+        }
+
+        private boolean isDrained() {
+            for (Connection connection : connections) {
+                if (connection.outstanding > 0)
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean isExhausted() {
+            for (Connection connection : connections) {
+                if (!connection.exhausted)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One pipelined connection: a ring of the requests in flight and a response parser.
+     **/
+    private final class Connection {
+        private static final int STATUS_LINE_AND_HEADERS = 0;
+        private static final int BODY = 1;
+        private static final int CHUNK_SIZE = 2;
+        private static final int CHUNK_DATA = 3;
+        private static final int CHUNK_TRAILER = 4;
+
+        private final IoLoop loop;
+        private final RequestSource source;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final SerializedRequest[] inFlight = new SerializedRequest[depth];
+        private final long[] sentAt = new long[depth];
+
+        //Bytes queued up to the end of each request in flight, so it is timed from when its last byte is written
+        private final long[] queuedUpTo = new long[depth];
+        private long queuedBytes;
+        private long writtenBytes;
+        private int unwritten;
+        private int unwrittenCount;
+
+        private SocketChannel channel;
+        private SelectionKey key;
+        private boolean exhausted;
+        private int head;
+        private int tail;
+        private int outstanding;
+
+        //Request partly copied into the out buffer
+        private SerializedRequest pending;
+        private int pendingOffset;
+
+        //Response parser
+        private int state = STATUS_LINE_AND_HEADERS;
+        private long remaining;
+        private int status;
+        private long bodyBytes;
+        private boolean closeAfterResponse;
+
+        Connection(IoLoop loop, RequestSource source) throws IOException {
+            this.loop = loop;
+            this.source = source;
+            open();
+        }
+
+        private void open() throws IOException {
+            channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Copies requests into the out buffer until it is full or the pipeline depth is reached.
+         **/
+        void fill() {
+            while (true) {
+                if (pending != null) {
+                    int length = Math.min(out.remaining(), pending.bytes.length - pendingOffset);
+                    out.put(pending.bytes, pendingOffset, length);
+                    pendingOffset += length;
+
+                    if (pendingOffset < pending.bytes.length)
+                        return;
+
+                    pending = null;
+                }
+
+                if (outstanding == depth || exhausted)
+                    return;
+
+                SerializedRequest next = source.next();
+                if (next == null) {
+                    exhausted = true;
+                    return;
+                }
+
+                inFlight[tail] = next;
+                queuedBytes += next.bytes.length;
+                queuedUpTo[tail] = queuedBytes;
+                unwrittenCount++;
+                tail = (tail + 1) % depth;
+                outstanding++;
+
+                pending = next;
+                pendingOffset = 0;
+            }
+        }
+
+        /**
+         * Writes what the socket takes of the out buffer, and asks the selector for OP_WRITE while bytes are left.
+         **/
+        void flush() throws IOException {
+            if (out.position() > 0) {
+                out.flip();
+                int written = channel.write(out);
+                out.compact();
+                loop.result.bytesSent.add(written);
+                writtenBytes += written;
+
+                long now = System.nanoTime();
+                while (unwrittenCount > 0 && queuedUpTo[unwritten] <= writtenBytes) {
+                    sentAt[unwritten] = now;
+                    unwritten = (unwritten + 1) % depth;
+                    unwrittenCount--;
+                }
+            }
+
+            int interest = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != interest)
+                key.interestOps(interest);
+        }
+
+        void read() throws IOException {
+            int read = channel.read(in);
+
+            if (read < 0) {
+                reconnect();
+                return;
+            }
+
+            loop.result.bytesReceived.add(read);
+            in.flip();
+            parse();
+            in.compact();
+
+            if (closeAfterResponse && outstanding == 0)
+                reconnect();
+        }
+
+        /**
+         * The requests in flight are lost: they count as errors and are completed with status -1.
+         **/
+        void abandon() {
+            loop.result.errors.add(outstanding);
+            for (int i = 0; i < outstanding; i++)
+                source.completed(inFlight[(head + i) % depth], -1);
+            Arrays.fill(inFlight, null);
+            outstanding = 0;
+        }
+
+        /**
+         * The differ closed the connection: the requests in flight are lost, open a new connection.
+         **/
+        private void reconnect() throws IOException {
+            abandon();
+            key.cancel();
+            channel.close();
+
+            head = 0;
+            tail = 0;
+            queuedBytes = 0;
+            writtenBytes = 0;
+            unwritten = 0;
+            unwrittenCount = 0;
+            pending = null;
+            state = STATUS_LINE_AND_HEADERS;
+            closeAfterResponse = false;
+            bodyBytes = 0;
+            in.clear();
+            out.clear();
+
+            open();
+        }
+
+        private void parse() {
+            while (in.hasRemaining()) {
+                switch (state) {
+                    case STATUS_LINE_AND_HEADERS:
+                        if (!parseHeaders())
+                            return;
+                        break;
+
+                    case BODY:
+                    case CHUNK_DATA:
+                        long skip = Math.min(remaining, in.remaining());
+                        in.position(in.position() + (int) skip);
+                        remaining -= skip;
+
+                        if (remaining == 0) {
+                            if (state == BODY)
+                                complete();
+                            else
+                                state = CHUNK_SIZE;
+                        }
+                        break;
+
+                    case CHUNK_SIZE:
+                        int sizeLineEnd = indexOf(in.position(), "\r\n");
+                        if (sizeLineEnd < 0)
+                            return;
+
+                        long chunkSize = parseHex(in.position(), sizeLineEnd);
+                        in.position(sizeLineEnd + 2);
+
+                        if (chunkSize == 0) {
+                            state = CHUNK_TRAILER;
+                        } else {
+                            bodyBytes += chunkSize;
+                            remaining = chunkSize + 2; //Chunk data and its CRLF
+                            state = CHUNK_DATA;
+                        }
+                        break;
+
+                    case CHUNK_TRAILER:
+                        int trailerLineEnd = indexOf(in.position(), "\r\n");
+                        if (trailerLineEnd < 0)
+                            return;
+
+                        boolean lastLine = trailerLineEnd == in.position();
+                        in.position(trailerLineEnd + 2);
+
+                        if (lastLine)
+                            complete();
+                        break;
+
+                    default:
+                        throw new IllegalStateException("Unknown parser state " + state);
+                }
+            }
+        }
+
+        /**
+         * Parses the status line and the headers this client needs.
+         *
+         * @return false if the headers are not complete in the buffer yet
+         **/
+        private boolean parseHeaders() {
+            int start = in.position();
+            int end = indexOf(start, "\r\n\r\n");
+
+            if (end < 0) {
+                if (start == 0 && in.limit() == in.capacity())
+                    throw new IllegalStateException("Response headers larger than " + BUFFER_SIZE + " bytes");
+                return false;
+            }
+
+            //"HTTP/1.1 200 OK"
+            status = (in.get(start + 9) - '0') * 100 + (in.get(start + 10) - '0') * 10 + (in.get(start + 11) - '0');
+
+            long contentLength = 0;
+            boolean chunked = false;
+
+            int line = indexOf(start, "\r\n") + 2;
+            while (line < end + 2) {
+                int lineEnd = indexOf(line, "\r\n");
+
+                if (startsWithIgnoreCase(line, "content-length:"))
+                    contentLength = parseDecimal(line + "content-length:".length(), lineEnd);
+                else if (startsWithIgnoreCase(line, "transfer-encoding:"))
+                    chunked = containsIgnoreCase(line, lineEnd, "chunked");
+                else if (startsWithIgnoreCase(line, "connection:"))
+                    closeAfterResponse |= containsIgnoreCase(line, lineEnd, "close");
+
+                line = lineEnd + 2;
+            }
+
+            in.position(end + 4);
+
+            if (chunked) {
+                state = CHUNK_SIZE;
+            } else if (contentLength > 0) {
+                bodyBytes = contentLength;
+                remaining = contentLength;
+                state = BODY;
+            } else {
+                complete();
+            }
+            return true;
+        }
+
+        private void complete() {
+            if (outstanding == 0)
+                throw new IllegalStateException("Response with status " + status + " without a request in flight");
+
+            SerializedRequest request = inFlight[head];
+            long micros = (System.nanoTime() - sentAt[head]) / 1000;
+            loop.result.latency.get(request.endpoint).record(micros);
+            loop.result.statusClasses[Math.min(status / 100, 5)].increment();
+            HarnessMetrics.recordRequest(request.method, request.endpoint, status, micros, request.bodyLength, bodyBytes);
+            source.completed(request, status);
+            bodyBytes = 0;
+
+            inFlight[head] = null;
+            head = (head + 1) % depth;
+            outstanding--;
+            state = STATUS_LINE_AND_HEADERS;
+        }
+
+        private int indexOf(int from, String pattern) {
+            int last = in.limit() - pattern.length();
+            for (int i = from; i <= last; i++) {
+                int j = 0;
+                while (j < pattern.length() && in.get(i + j) == pattern.charAt(j))
+                    j++;
+                if (j == pattern.length())
+                    return i;
+            }
+            return -1;
+        }
+
+        private boolean startsWithIgnoreCase(int from, String prefix) {
+            if (from + prefix.length() > in.limit())
+                return false;
+
+            for (int i = 0; i < prefix.length(); i++) {
+                if (Character.toLowerCase((char) in.get(from + i)) != prefix.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean containsIgnoreCase(int from, int to, String value) {
+            for (int i = from; i + value.length() <= to; i++) {
+                if (startsWithIgnoreCase(i, value))
+                    return true;
+            }
+            return false;
+        }
+
+        private long parseDecimal(int from, int to) {
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                byte b = in.get(i);
+                if (b >= '0' && b <= '9')
+                    value = value * 10 + (b - '0');
+            }
+            return value;
+        }
+
+        private long parseHex(int from, int to) {
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                int digit = Character.digit((char) in.get(i), 16);
+                if (digit < 0)
+                    break; //Chunk extensions start with ';'
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        HarnessLog.toConsole();
+        URI host = URI.create(Environment.get("HOST"));
+        int ioThreads = Integer.parseInt(Environment.get("PIPELINE_IO_THREADS", "2"));
+        int connections = Integer.parseInt(Environment.get("PIPELINE_CONNECTIONS", "8"));
+        int depth = Integer.parseInt(Environment.get("PIPELINE_DEPTH", "64"));
+        long seconds = Long.parseLong(Environment.get("PIPELINE_SECONDS", "10"));
+        int workflows = Integer.parseInt(Environment.get("PIPELINE_WORKFLOWS", "10000"));
+        int payloadLength = Integer.parseInt(Environment.get("PIPELINE_PAYLOAD_LENGTH", "100"));
+
+        MetricsServer.startIfConfigured();
+
+        Random random = new Random();
+        String hostHeader = hostHeader(host);
+        PipelinedLoadClient client = new PipelinedLoadClient(host, ioThreads, connections, depth);
+        int workflowsPerConnection = Math.max(1, workflows / client.connections());
+
+        Supplier<RequestSource> sources = () -> {
+            List<DiffWorkflow> pool = new ArrayList<>();
+            for (int i = 0; i < workflowsPerConnection; i++)
+                pool.add(DiffWorkflow.random(payloadLength, random));
+            return new WorkflowRequestSource(pool, hostHeader, true);
+        };
+
+        FlightRecording.startIfConfigured("pipelined-load");
+        ResourceSampler.startIfConfigured("pipelined-load");
+        try {
+            HarnessLog.log(client.run(sources, seconds * 1000).summary());
+            HarnessLog.log("Payload cache: " + PayloadCache.summary());
+        } finally {
+            FlightRecording.stop();
+            ResourceSampler.stop();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package load;
+
+import hook.TestBase;
+import utilities.Environment;
+import utilities.FlightRecording;
+import utilities.HarnessLog;
+import utilities.PayloadCache;
+import utilities.ResourceSampler;
+import utilities.TestUtililities;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class finds the rate of diff workflows at which the differ saturates.
+ *
+ * It starts workflows (left, right, diff) at a fixed rate, one step at a time, each step faster
+ * than the previous one. A step is held window after window until its p99 latency stabilises.
+ * The run stops at the knee: the first step whose throughput of successful workflows no longer increases,
+ * whose p99 latency breaches the target or whose workflows fail too often. The last step before it is the saturation point.
+ *
+ * The throughput-vs-latency curve is written to test-output/saturation-curve.csv.
+ *
+ * Run with: mvn compile exec:java -Dexec.mainClass=load.SaturationFinder
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * SATURATION_START_RATE=10 - workflows per second of the first step
+ * SATURATION_RATE_STEP=1.5 - rate multiplier between steps
+ * SATURATION_MAX_RATE=100000 - rate at which to stop even without a knee
+ * SATURATION_WINDOW_SECONDS=5 - length of a measurement window
+ * SATURATION_MAX_WINDOWS=6 - windows after which a step counts as measured even if not stable
+ * SATURATION_STABLE_TOLERANCE=0.15 - relative p99 change between windows that counts as stable
+ * SATURATION_P99_TARGET_MS=500 - p99 workflow latency that must not be breached
+ * SATURATION_MIN_GAIN=0.05 - relative throughput gain below which throughput counts as flat
+ * SATURATION_MAX_ERROR_PERCENT=1 - share of failed workflows that must not be exceeded
+ * SATURATION_CONCURRENCY=200 - maximum workflows in flight
+ * SATURATION_PAYLOAD_LENGTH=100 - length of each side before Base64 encoding
+ *
+ * @author Adebowale Otulana
+ */
+public class SaturationFinder {
+
+    public static final Path CURVE_FILE = Paths.get("test-output", "saturation-curve.csv");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HarnessLog.toConsole();
+        double rate = Double.parseDouble(Environment.get("SATURATION_START_RATE", "10"));
+        double rateStep = Double.parseDouble(Environment.get("SATURATION_RATE_STEP", "1.5"));
+        double maxRate = Double.parseDouble(Environment.get("SATURATION_MAX_RATE", "100000"));
+        long windowMillis = Long.parseLong(Environment.get("SATURATION_WINDOW_SECONDS", "5")) * 1000;
+        int maxWindows = Integer.parseInt(Environment.get("SATURATION_MAX_WINDOWS", "6"));
+        double tolerance = Double.parseDouble(Environment.get("SATURATION_STABLE_TOLERANCE", "0.15"));
+        long p99TargetMicros = Long.parseLong(Environment.get("SATURATION_P99_TARGET_MS", "500")) * 1000;
+        double minGain = Double.parseDouble(Environment.get("SATURATION_MIN_GAIN", "0.05"));
+        double maxErrorRate = Double.parseDouble(Environment.get("SATURATION_MAX_ERROR_PERCENT", "1")) / 100;
+        int concurrency = Integer.parseInt(Environment.get("SATURATION_CONCURRENCY", "200"));
+        int payloadLength = Integer.parseInt(Environment.get("SATURATION_PAYLOAD_LENGTH", "100"));
+
+        new TestBase().initializeBaseURI();
+        TestUtililities.logDiffResponses = false;
+
+        Random random = new Random();
+        Files.createDirectories(CURVE_FILE.getParent());
+        FlightRecording.startIfConfigured("saturation");
+        ResourceSampler.startIfConfigured("saturation");
+
+        try (OpenLoopLoad load = new OpenLoopLoad(concurrency);
+             PrintWriter curve = new PrintWriter(Files.newBufferedWriter(CURVE_FILE))) {
+
+            curve.println("offered_rate,throughput,p50_ms,p90_ms,p99_ms,max_ms,errors,windows,stable");
+
+            double saturationRate = 0;
+            double saturationThroughput = 0;
+            String kneeReason = "maximum rate reached without a knee";
+
+            for (; rate <= maxRate; rate *= rateStep) {
+                //Hold the step until the p99 of two consecutive windows agree
+                WorkflowStats window = null;
+                boolean stable = false;
+                int windows = 0;
+                while (!stable && windows < maxWindows) {
+                    WorkflowStats previous = window;
+                    window = load.run(rate, windowMillis, () -> DiffWorkflow.random(payloadLength, random));
+                    windows++;
+
+                    stable = previous != null && isStable(previous, window, tolerance);
+                }
+
+                long p99 = window.workflowLatency.percentile(99);
+                double throughput = window.throughput();
+
+                curve.println(String.format(Locale.ROOT, "%.1f,%.1f,%.2f,%.2f,%.2f,%.2f,%d,%d,%b",
+                        rate, throughput,
+                        window.workflowLatency.percentile(50) / 1000.0,
+                        window.workflowLatency.percentile(90) / 1000.0,
+                        p99 / 1000.0,
+                        window.workflowLatency.max() / 1000.0,
+                        window.errors.sum(), windows, stable));
+                curve.flush();
+
+                HarnessLog.log(String.format(Locale.ROOT, "Offered %.1f/s: %s (%d windows, %s)",
+                        rate, window.summary(), windows, stable ? "stable" : "not stable"));
+
+                if (window.errorRate() > maxErrorRate) {
+                    kneeReason = String.format(Locale.ROOT, "%.1f%% of the workflows failed at %.1f/s", window.errorRate() * 100, rate);
+                    break;
+                }
+
+                if (p99 > p99TargetMicros) {
+                    kneeReason = "p99 breached " + p99TargetMicros / 1000 + "ms at " + String.format(Locale.ROOT, "%.1f/s", rate);
+                    break;
+                }
+
+                if (saturationThroughput > 0 && throughput < saturationThroughput * (1 + minGain)) {
+                    kneeReason = "throughput stopped increasing at " + String.format(Locale.ROOT, "%.1f/s", rate);
+                    break;
+                }
+
+                saturationRate = rate;
+                saturationThroughput = throughput;
+            }
+
+            HarnessLog.log(String.format(Locale.ROOT,
+                    "Saturation point: %.1f workflows/s offered, %.1f workflows/s succeeded (%s)",
+                    saturationRate, saturationThroughput, kneeReason));
+            HarnessLog.log("Throughput-vs-latency curve written to " + CURVE_FILE);
+            HarnessLog.log("Payload cache: " + PayloadCache.summary());
+        } finally {
+            FlightRecording.stop();
+            ResourceSampler.stop();
+        }
+    }
+
+    private static boolean isStable(WorkflowStats previous, WorkflowStats current, double tolerance) {
+        long previousP99 = previous.workflowLatency.percentile(99);
+        long currentP99 = current.workflowLatency.percentile(99);
+
+        if (previousP99 == 0)
+            return currentP99 == 0;
+
+        return Math.abs(currentP99 - previousP99) <= tolerance * previousP99;
+    }
+}
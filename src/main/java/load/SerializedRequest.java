@@ -0,0 +1,65 @@
+package load;
+
+import utilities.Endpoints;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class holds one HTTP/1.1 request serialized ahead of time,
+ * so {@link PipelinedLoadClient} only has to copy bytes onto the wire.
+ *
+ * @author Adebowale Otulana
+ */
+public final class SerializedRequest {
+
+    /**
+     * The endpoint the request is sent to, one of the {@link Endpoints} paths
+     **/
+    public final String endpoint;
+
+    public final String method;
+
+    public final byte[] bytes;
+
+    public final int bodyLength;
+
+    private SerializedRequest(String method, String endpoint, String head, byte[] body) {
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+
+        this.endpoint = endpoint;
+        this.method = method;
+        this.bodyLength = body.length;
+        this.bytes = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, bytes, 0, headBytes.length);
+        System.arraycopy(body, 0, bytes, headBytes.length, body.length);
+    }
+
+    /**
+     * @return A side request with a JSON body
+     **/
+    public static SerializedRequest post(String host, String path, String body) {
+        return post(host, path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return A side request with a JSON body that is already encoded
+     **/
+    public static SerializedRequest post(String host, String path, byte[] body) {
+        String head = "POST " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "\r\n";
+        return new SerializedRequest("POST", Endpoints.POST_SIDE, head, body);
+    }
+
+    /**
+     * @return A diff request
+     **/
+    public static SerializedRequest get(String host, String path) {
+        String head = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "\r\n";
+        return new SerializedRequest("GET", Endpoints.GET_DIFF, head, new byte[0]);
+    }
+}
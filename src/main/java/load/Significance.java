@@ -0,0 +1,200 @@
+package load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class holds the statistics of the A/B comparison:
+ * percentiles, bootstrap confidence intervals and the Mann-Whitney U test.
+ *
+ * None of them assume normally distributed samples, which latencies never are.
+ *
+ * @author Adebowale Otulana
+ */
+public final class Significance {
+
+    /**
+     * Samples up to which the exact distribution of the rank sum is computed for a small group
+     **/
+    private static final int EXACT_MAX_SAMPLES = 200;
+
+    private Significance() {
+    }
+
+    /**
+     * @param samples
+     *        Sorted samples
+     *
+     * @param percentile
+     *        Between 0 and 100
+     *
+     * @return The nearest-rank percentile, NaN if there are no samples
+     **/
+    public static double percentile(double[] samples, double percentile) {
+        if (samples.length == 0)
+            return Double.NaN;
+
+        int rank = (int) Math.ceil(percentile / 100 * samples.length);
+        return samples[Math.min(samples.length, Math.max(1, rank)) - 1];
+    }
+
+    /**
+     * Bootstrap confidence interval of the difference between a percentile of B and the same percentile of A.
+     *
+     * @param a
+     *        Samples of A
+     *
+     * @param b
+     *        Samples of B
+     *
+     * @param percentile
+     *        Percentile to compare, e.g. 50 for the median
+     *
+     * @param confidence
+     *        Confidence level, e.g. 0.95
+     *
+     * @param resamples
+     *        Number of bootstrap resamples, e.g. 2000
+     *
+     * @return The lower and upper bound of the interval of (B - A)
+     **/
+    public static double[] bootstrapDifference(double[] a, double[] b, double percentile, double confidence,
+                                               int resamples, Random random) {
+        double[] differences = new double[resamples];
+        double[] resampledA = new double[a.length];
+        double[] resampledB = new double[b.length];
+
+        for (int i = 0; i < resamples; i++) {
+            resample(a, resampledA, random);
+            resample(b, resampledB, random);
+            differences[i] = percentile(resampledB, percentile) - percentile(resampledA, percentile);
+        }
+
+        Arrays.sort(differences);
+        double tail = (1 - confidence) / 2 * 100;
+        return new double[] {percentile(differences, tail), percentile(differences, 100 - tail)};
+    }
+
+    private static void resample(double[] samples, double[] resampled, Random random) {
+        for (int i = 0; i < resampled.length; i++)
+            resampled[i] = samples[random.nextInt(samples.length)];
+        Arrays.sort(resampled);
+    }
+
+    /**
+     * Two-sided Mann-Whitney U test: how likely samples this different are
+     * if A and B come from the same distribution. Uses the normal approximation
+     * with tie and continuity correction, which holds from about 20 samples per group;
+     * below that, e.g. for a few throughput windows, the exact distribution of the rank sum.
+     *
+     * @return The p-value, 1 if either group is empty
+     **/
+    public static double mannWhitneyP(double[] a, double[] b) {
+        int n1 = a.length;
+        int n2 = b.length;
+        int n = n1 + n2;
+        if (n1 == 0 || n2 == 0)
+            return 1;
+
+        //Rank the pooled samples, ties get the average of their ranks
+        double[][] pooled = new double[n][];
+        for (int i = 0; i < n1; i++)
+            pooled[i] = new double[] {a[i], 0};
+        for (int i = 0; i < n2; i++)
+            pooled[n1 + i] = new double[] {b[i], 1};
+        Arrays.sort(pooled, (x, y) -> Double.compare(x[0], y[0]));
+
+        double rankSumA = 0;
+        double tieCorrection = 0;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j < n && pooled[j][0] == pooled[i][0])
+                j++;
+
+            double averageRank = (i + 1 + j) / 2.0;
+            for (int k = i; k < j; k++) {
+                if (pooled[k][1] == 0)
+                    rankSumA += averageRank;
+            }
+
+            double ties = j - i;
+            tieCorrection += ties * ties * ties - ties;
+            i = j;
+        }
+
+        if (Math.min(n1, n2) < 20 && n <= EXACT_MAX_SAMPLES)
+            return n1 <= n2 ? exactRankSumP(pooled, 0, n1) : exactRankSumP(pooled, 1, n2);
+
+        double u = rankSumA - n1 * (n1 + 1) / 2.0;
+        double mean = n1 * (double) n2 / 2;
+        double variance = n1 * (double) n2 / 12 * ((n + 1) - tieCorrection / (n * (double) (n - 1)));
+        if (variance <= 0)
+            return 1;
+
+        double z = (Math.abs(u - mean) - 0.5) / Math.sqrt(variance);
+        return Math.min(1, 2 * (1 - normalCdf(Math.max(0, z))));
+    }
+
+    /**
+     * Exact two-sided p-value of the rank sum of the smaller group: the share of all ways to pick as many
+     * of the pooled ranks, ties kept at their average rank, whose rank sum is at least as far from its mean.
+     * Ranks are doubled, so average ranks of ties are whole numbers too.
+     *
+     * @param pooled
+     *        Sorted pooled samples, each with 0 for A or 1 for B
+     *
+     * @param group
+     *        0 for A, 1 for B
+     *
+     * @param size
+     *        Samples of the group
+     **/
+    private static double exactRankSumP(double[][] pooled, int group, int size) {
+        int n = pooled.length;
+        int[] doubledRanks = new int[n];
+        int observed = 0;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j < n && pooled[j][0] == pooled[i][0])
+                j++;
+            for (int k = i; k < j; k++) {
+                doubledRanks[k] = i + 1 + j;
+                if (pooled[k][1] == group)
+                    observed += doubledRanks[k];
+            }
+            i = j;
+        }
+
+        //ways[k][s]: subsets of k of the ranks seen so far with a doubled rank sum of s
+        int maxSum = n * (n + 1);
+        double[][] ways = new double[size + 1][maxSum + 1];
+        ways[0][0] = 1;
+        for (int i = 0; i < n; i++) {
+            for (int k = Math.min(i + 1, size); k >= 1; k--) {
+                for (int sum = maxSum; sum >= doubledRanks[i]; sum--)
+                    ways[k][sum] += ways[k - 1][sum - doubledRanks[i]];
+            }
+        }
+
+        int mean = size * (n + 1);
+        int distance = Math.abs(observed - mean);
+        double extreme = 0;
+        double all = 0;
+        for (int sum = 0; sum <= maxSum; sum++) {
+            all += ways[size][sum];
+            if (Math.abs(sum - mean) >= distance)
+                extreme += ways[size][sum];
+        }
+        return Math.min(1, extreme / all);
+    }
+
+    /**
+     * Standard normal cumulative distribution, Abramowitz and Stegun 26.2.17 (error below 7.5e-8)
+     **/
+    private static double normalCdf(double z) {
+        double t = 1 / (1 + 0.2316419 * Math.abs(z));
+        double density = Math.exp(-z * z / 2) / Math.sqrt(2 * Math.PI);
+        double tail = density * t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+        return z >= 0 ? 1 - tail : tail;
+    }
+}
@@ -0,0 +1,49 @@
+package load;
+
+import java.util.List;
+
+/**
+ * This class turns diff workflows into the requests {@link PipelinedLoadClient} sends:
+ * left, right and diff of the first workflow, then of the next one, and so on.
+ * All requests are serialized when the source is created.
+ *
+ * Not thread safe: every connection of the client gets its own source.
+ *
+ * @author Adebowale Otulana
+ */
+public class WorkflowRequestSource implements PipelinedLoadClient.RequestSource {
+
+    private final SerializedRequest[] requests;
+    private final boolean repeat;
+    private int next;
+
+    /**
+     * @param workflows
+     *        Workflows to send, in order
+     *
+     * @param host
+     *        Value of the Host header, e.g. localhost:8081
+     *
+     * @param repeat
+     *        true to start over after the last workflow, false to stop
+     **/
+    public WorkflowRequestSource(List<DiffWorkflow> workflows, String host, boolean repeat) {
+        this.requests = new SerializedRequest[workflows.size() * 3];
+        this.repeat = repeat;
+
+        int i = 0;
+        for (DiffWorkflow workflow : workflows) {
+            for (SerializedRequest request : workflow.serialize(host))
+                requests[i++] = request;
+        }
+    }
+
+    public SerializedRequest next() {
+        if (next == requests.length) {
+            if (!repeat || requests.length == 0)
+                return null;
+            next = 0;
+        }
+        return requests[next++];
+    }
+}
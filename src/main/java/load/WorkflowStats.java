@@ -0,0 +1,67 @@
+package load;
+
+import utilities.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects the latencies and errors of diff workflows run by a load mode.
+ * It is safe to record into from any number of threads.
+ *
+ * The workflow latency covers every workflow, failed ones included; the throughput counts only the successful ones,
+ * so a differ that fails fast does not look faster.
+ *
+ * @author Adebowale Otulana
+ */
+public class WorkflowStats {
+
+    public final LatencyHistogram sideLatency = new LatencyHistogram();
+    public final LatencyHistogram diffLatency = new LatencyHistogram();
+    public final LatencyHistogram workflowLatency = new LatencyHistogram();
+    public final LongAdder errors = new LongAdder();
+    public final LongAdder successes = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = -1;
+
+    /**
+     * Closes the measurement window, once the workflows it counts have finished,
+     * so reading the throughput later does not dilute it
+     **/
+    public void finish() {
+        if (endNanos == -1)
+            endNanos = System.nanoTime();
+    }
+
+    /**
+     * @return Successful workflows per second from the creation of these stats until {@link #finish()},
+     * or until now if the window is still open
+     **/
+    public double throughput() {
+        long end = endNanos == -1 ? System.nanoTime() : endNanos;
+        double seconds = (end - startNanos) / 1e9;
+        return seconds == 0 ? 0 : successes.sum() / seconds;
+    }
+
+    /**
+     * @return Failed workflows as a share of all finished ones, 0 if none has finished
+     **/
+    public double errorRate() {
+        long failed = errors.sum();
+        long finished = failed + successes.sum();
+        return finished == 0 ? 0 : (double) failed / finished;
+    }
+
+    /**
+     * @return A one line summary of throughput, workflow latency percentiles in milliseconds and errors
+     **/
+    public String summary() {
+        return String.format("throughput=%.1f/s p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms errors=%d",
+                throughput(),
+                workflowLatency.percentile(50) / 1000.0,
+                workflowLatency.percentile(90) / 1000.0,
+                workflowLatency.percentile(99) / 1000.0,
+                workflowLatency.max() / 1000.0,
+                errors.sum());
+    }
+}
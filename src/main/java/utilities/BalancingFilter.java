@@ -0,0 +1,57 @@
+package utilities;
+
+import io.restassured.RestAssured;
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+
+/**
+ * This class sends every RestAssured request to HOST to one of the {@link DifferInstances} instead,
+ * picked by the configured policy from the "id" path parameter, and records it against that instance.
+ *
+ * Requests to an explicit other base URI, e.g. differ build B of load.ABComparison, are sent as they are.
+ * Without HOSTS it does nothing.
+ *
+ * @author Adebowale Otulana
+ */
+public class BalancingFilter implements Filter {
+
+    public Response filter(FilterableRequestSpecification requestSpec,
+                           FilterableResponseSpecification responseSpec,
+                           FilterContext context) {
+        DifferInstances instances = DifferInstances.current();
+        if (instances == null || !RestAssured.baseURI.equals(requestSpec.getBaseUri()))
+            return context.next(requestSpec, responseSpec);
+
+        DifferInstances.Instance instance = instances.pick(id(requestSpec));
+        requestSpec.baseUri(instance.host().toString());
+
+        instance.started();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            Response response = context.next(requestSpec, responseSpec);
+            succeeded = response.getStatusCode() / 100 == 2;
+            return response;
+        } finally {
+            instance.finished(start, succeeded);
+        }
+    }
+
+    /**
+     * @return The ID of the request, null if it has none or it is not a number (e.g. the invalid ID tests)
+     **/
+    private static Long id(FilterableRequestSpecification requestSpec) {
+        Object id = requestSpec.getNamedPathParams().get("id");
+        if (id == null)
+            return null;
+
+        try {
+            return Long.valueOf(id.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This enum lists the content codings a request body can be sent with.
+ *
+ * @author Adebowale Otulana
+ */
+public enum Compression {
+    NONE(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String contentEncoding;
+
+    Compression(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return The value of the Content-Encoding header, null when the body is not compressed
+     **/
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @param body
+     *        Request body
+     *
+     * @return The body compressed with this content coding
+     **/
+    public byte[] encode(byte[] body) {
+        if (this == NONE)
+            return body;
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 64);
+        try (OutputStream out = this == GZIP ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+}
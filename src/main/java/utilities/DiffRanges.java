@@ -0,0 +1,337 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * This class holds the ranges of different characters of a DIFFERENT_CHARS diff,
+ * e.g. [0-5] [7] in "Values are different on char(s) [0-5] [7]."
+ *
+ * The ranges are kept as pairs of first and last offset in one long array, without boxing,
+ * so millions of ranges take 16 bytes each. {@link #parse(InputStream)} reads them straight from
+ * the diff response body, without building the detail string, however long it is.
+ *
+ * @author Adebowale Otulana
+ */
+public final class DiffRanges {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * First and last offset of range i at index 2i and 2i + 1
+     **/
+    private long[] offsets;
+    private int size;
+
+    public DiffRanges() {
+        this(16);
+    }
+
+    public DiffRanges(int expectedRanges) {
+        offsets = new long[Math.max(2, expectedRanges * 2)];
+    }
+
+    /**
+     * @param firstLastPairs
+     *        First and last offset of every range, e.g. 0, 5, 7, 7 for [0-5] [7]
+     **/
+    public static DiffRanges of(long... firstLastPairs) {
+        if (firstLastPairs.length % 2 != 0)
+            throw new IllegalArgumentException("Ranges need a first and a last offset each");
+
+        DiffRanges ranges = new DiffRanges(firstLastPairs.length / 2);
+        for (int i = 0; i < firstLastPairs.length; i += 2)
+            ranges.add(firstLastPairs[i], firstLastPairs[i + 1]);
+        return ranges;
+    }
+
+    /**
+     * Computes the ranges the differ should report for two values of the same length,
+     * e.g. the Base64 encoded left and right sides.
+     **/
+    public static DiffRanges between(CharSequence left, CharSequence right) {
+        DiffRanges ranges = new DiffRanges();
+        int length = Math.min(left.length(), right.length());
+        int i = 0;
+
+        while (i < length) {
+            if (left.charAt(i) == right.charAt(i)) {
+                i++;
+                continue;
+            }
+
+            int first = i;
+            while (i < length && left.charAt(i) != right.charAt(i))
+                i++;
+            ranges.add(first, i - 1);
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads the ranges from the detail of a diff response body, e.g.
+     * {"type":"DIFFERENT_CHARS","detail":"Values are different on char(s) [11] [75]."}
+     * Only the top-level detail field is read, every other field is skipped.
+     * The stream is read to the end of the JSON object but not closed.
+     *
+     * @return The ranges, empty if the body has no detail or the detail has no ranges
+     **/
+    public static DiffRanges parse(InputStream body) throws IOException {
+        return new Parser(body).parse();
+    }
+
+    public void add(long first, long last) {
+        if (size * 2 == offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+        offsets[size * 2] = first;
+        offsets[size * 2 + 1] = last;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long first(int range) {
+        return offsets[checked(range) * 2];
+    }
+
+    public long last(int range) {
+        return offsets[checked(range) * 2 + 1];
+    }
+
+    /**
+     * @return The number of different characters, i.e. the summed length of the ranges
+     **/
+    public long differentChars() {
+        long chars = 0;
+        for (int i = 0; i < size; i++)
+            chars += offsets[i * 2 + 1] - offsets[i * 2] + 1;
+        return chars;
+    }
+
+    /**
+     * @return The index of the first range that differs from the expected ranges, -1 if all of them are equal.
+     * If one list is a prefix of the other, the index is the length of the shorter one.
+     **/
+    public int mismatch(DiffRanges expected) {
+        int common = Math.min(size, expected.size);
+        for (int i = 0; i < common * 2; i++) {
+            if (offsets[i] != expected.offsets[i])
+                return i / 2;
+        }
+        return size == expected.size ? -1 : common;
+    }
+
+    /**
+     * @return The range at the index in the format of the differ, e.g. [0-5] or [7], or none past the end
+     **/
+    public String describe(int range) {
+        if (range < 0 || range >= size)
+            return "none";
+
+        long first = offsets[range * 2];
+        long last = offsets[range * 2 + 1];
+        return first == last ? "[" + first + "]" : "[" + first + "-" + last + "]";
+    }
+
+    public boolean equals(Object other) {
+        return other instanceof DiffRanges && mismatch((DiffRanges) other) == -1;
+    }
+
+    public int hashCode() {
+        int hash = size;
+        for (int i = 0; i < size * 2; i++)
+            hash = 31 * hash + Long.hashCode(offsets[i]);
+        return hash;
+    }
+
+    /**
+     * @return The ranges in the format of the differ, e.g. [0-5] [7]. Long lists are cut after 10 ranges.
+     **/
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Math.min(size, 10); i++)
+            text.append(i == 0 ? "" : " ").append(describe(i));
+
+        if (size > 10)
+            text.append(" ... (").append(size).append(" ranges)");
+        return text.toString();
+    }
+
+    private int checked(int range) {
+        if (range < 0 || range >= size)
+            throw new IndexOutOfBoundsException("Range " + range + " of " + size);
+        return range;
+    }
+
+    /**
+     * A single pass over the JSON object of a diff response, one buffer at a time.
+     **/
+    private static final class Parser {
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        Parser(InputStream in) {
+            this.in = in;
+        }
+
+        DiffRanges parse() throws IOException {
+            DiffRanges ranges = new DiffRanges();
+
+            if (skipWhitespace() != '{')
+                throw new IOException("Diff response is not a JSON object");
+            position++;
+
+            while (true) {
+                int next = skipWhitespace();
+                if (next == '}' || next == -1)
+                    return ranges;
+                if (next == ',') {
+                    position++;
+                    continue;
+                }
+
+                String key = readKey();
+                if (skipWhitespace() != ':')
+                    throw new IOException("Expected : after \"" + key + "\"");
+                position++;
+
+                if ("detail".equals(key) && skipWhitespace() == '"') {
+                    position++;
+                    readRanges(ranges);
+                } else {
+                    skipValue();
+                }
+            }
+        }
+
+        /**
+         * Reads the ranges of the detail string up to its closing quote.
+         * This is where almost all of a large body is, so it scans the buffer directly.
+         **/
+        private void readRanges(DiffRanges ranges) throws IOException {
+            boolean inRange = false;
+            boolean inLast = false;
+            long first = 0;
+            long last = 0;
+
+            while (true) {
+                if (position == limit && peek() == -1)
+                    throw new IOException("Diff response ends inside the detail");
+
+                byte[] bytes = buffer;
+                int end = limit;
+                int i = position;
+
+                for (; i < end; i++) {
+                    int c = bytes[i];
+
+                    if (c >= '0' && c <= '9') {
+                        if (inLast)
+                            last = last * 10 + (c - '0');
+                        else
+                            first = first * 10 + (c - '0');
+                    } else if (c == '[') {
+                        inRange = true;
+                        inLast = false;
+                        first = 0;
+                        last = 0;
+                    } else if (c == ']') {
+                        if (inRange)
+                            ranges.add(first, inLast ? last : first);
+                        inRange = false;
+                    } else if (c == '-') {
+                        inLast = inRange;
+                    } else if (c == '"') {
+                        position = i + 1;
+                        return;
+                    } else if (c == '\\') {
+                        //Skip the escaped character, which may be in the next buffer
+                        position = i + 1;
+                        read();
+                        i = position - 1;
+                        end = limit;
+                    }
+                }
+                position = end;
+            }
+        }
+
+        private String readKey() throws IOException {
+            if (read() != '"')
+                throw new IOException("Expected a field name in the diff response");
+
+            StringBuilder key = new StringBuilder();
+            int c;
+            while ((c = read()) != '"') {
+                if (c == -1)
+                    throw new IOException("Diff response ends inside a field name");
+                if (c == '\\')
+                    c = read();
+                key.append((char) c);
+            }
+            return key.toString();
+        }
+
+        /**
+         * Skips a value of any type, up to the , or } that ends it
+         **/
+        private void skipValue() throws IOException {
+            int depth = 0;
+            while (true) {
+                int c = peek();
+                if (c == -1)
+                    return;
+                if (depth == 0 && (c == ',' || c == '}'))
+                    return;
+
+                position++;
+                if (c == '"')
+                    skipString();
+                else if (c == '{' || c == '[')
+                    depth++;
+                else if (c == '}' || c == ']')
+                    depth--;
+            }
+        }
+
+        private void skipString() throws IOException {
+            int c;
+            while ((c = read()) != '"' && c != -1) {
+                if (c == '\\')
+                    read();
+            }
+        }
+
+        private int skipWhitespace() throws IOException {
+            int c;
+            while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t')
+                position++;
+            return c;
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c != -1)
+                position++;
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package utilities;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class describes the differ instances requests are spread over, when the differ runs horizontally,
+ * and picks the instance of every request by one of the policies:
+ * round-robin - the instances in turn
+ * least-outstanding - the instance with the fewest requests in flight from this JVM
+ * id-affinity - a hash of the ID, so left, right and diff of an ID always hit the same instance
+ *
+ * Requests to HOST are routed by the {@link BalancingFilter}, so the functional tests and the load modes
+ * are spread without any change of their own. Every instance records its own latency, requests and errors.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * HOSTS - comma separated base URIs of the differ instances, not set by default: every request goes to HOST
+ * BALANCE_POLICY=id-affinity - round-robin, least-outstanding or id-affinity
+ *
+ * @author Adebowale Otulana
+ */
+public class DifferInstances {
+
+    public enum Policy {
+        ROUND_ROBIN, LEAST_OUTSTANDING, ID_AFFINITY;
+
+        /**
+         * @param name
+         *        e.g. round-robin
+         **/
+        public static Policy parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    private static volatile DifferInstances current;
+
+    private final List<Instance> instances;
+    private final Policy policy;
+    private final AtomicLong turn = new AtomicLong();
+
+    /**
+     * @param hosts
+     *        Base URIs of the differ instances, e.g. http://localhost:8081
+     **/
+    public DifferInstances(List<URI> hosts, Policy policy) {
+        if (hosts.isEmpty())
+            throw new IllegalArgumentException("At least one differ instance is needed");
+
+        List<Instance> instances = new ArrayList<>();
+        for (URI host : hosts)
+            instances.add(new Instance(host));
+
+        this.instances = Collections.unmodifiableList(instances);
+        this.policy = policy;
+    }
+
+    /**
+     * Routes requests over the instances of HOSTS, if it is configured
+     **/
+    public static void configureIfListed() {
+        List<URI> hosts = hosts();
+        if (!hosts.isEmpty())
+            use(new DifferInstances(hosts, Policy.parse(Environment.get("BALANCE_POLICY", "id-affinity"))));
+    }
+
+    /**
+     * @return The base URIs of HOSTS, empty if it is not configured
+     **/
+    public static List<URI> hosts() {
+        List<URI> hosts = new ArrayList<>();
+        for (String host : Environment.get("HOSTS", "").split(",")) {
+            if (!host.trim().isEmpty())
+                hosts.add(URI.create(host.trim()));
+        }
+        return hosts;
+    }
+
+    /**
+     * Routes the requests from now on over the given instances, e.g. for the next step of load.MultiInstanceLoad
+     *
+     * @param instances
+     *        null to send every request to HOST again
+     **/
+    public static void use(DifferInstances instances) {
+        current = instances;
+    }
+
+    /**
+     * @return The instances requests are routed over, null if every request goes to HOST
+     **/
+    public static DifferInstances current() {
+        return current;
+    }
+
+    public List<Instance> instances() {
+        return instances;
+    }
+
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Picks the instance of a request by the policy
+     *
+     * @param id
+     *        ID of the request, null for requests without one; they are spread round-robin under id-affinity
+     **/
+    public Instance pick(Long id) {
+        int size = instances.size();
+        if (size == 1)
+            return instances.get(0);
+
+        switch (policy) {
+            case LEAST_OUTSTANDING:
+                //Start at a different instance each time, so ties do not all land on the first one
+                int start = (int) (turn.getAndIncrement() % size);
+                Instance least = instances.get(start);
+                for (int i = 1; i < size; i++) {
+                    Instance instance = instances.get((start + i) % size);
+                    if (instance.outstanding() < least.outstanding())
+                        least = instance;
+                }
+                return least;
+
+            case ID_AFFINITY:
+                if (id != null)
+                    return instances.get(Math.floorMod(mix(id), size));
+                //Requests without an ID are spread in turn
+                return instances.get((int) (turn.getAndIncrement() % size));
+
+            default:
+                return instances.get((int) (turn.getAndIncrement() % size));
+        }
+    }
+
+    /**
+     * @return A line per instance with its requests, throughput, latency and errors
+     **/
+    public String summary() {
+        StringBuilder summary = new StringBuilder(policy.toString());
+        for (Instance instance : instances)
+            summary.append('\n').append(instance);
+        return summary.toString();
+    }
+
+    /**
+     * Spreads sequential and shard-ranged IDs evenly, a plain modulo would not
+     **/
+    private static int mix(long id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * One differ instance, with the latency and the requests of everything routed to it
+     **/
+    public static final class Instance {
+        private final URI host;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAccumulator firstStartNanos = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator lastFinishNanos = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        Instance(URI host) {
+            this.host = host;
+        }
+
+        public URI host() {
+            return host;
+        }
+
+        public int outstanding() {
+            return outstanding.get();
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        /**
+         * @return Requests that failed or were answered with a status other than 2xx
+         **/
+        public long errors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return Completed requests per second from the start of the first request to the end of the last one,
+         * so time before and after the load, e.g. a warm-up on other instances or writing a report, does not count
+         **/
+        public double throughput() {
+            long count = latency.count();
+            double seconds = (lastFinishNanos.get() - firstStartNanos.get()) / 1e9;
+            return count == 0 || seconds <= 0 ? 0 : count / seconds;
+        }
+
+        void started() {
+            outstanding.incrementAndGet();
+        }
+
+        void finished(long startNanos, boolean succeeded) {
+            latency.recordSince(startNanos);
+            firstStartNanos.accumulate(startNanos);
+            lastFinishNanos.accumulate(System.nanoTime());
+            if (!succeeded)
+                errors.increment();
+            outstanding.decrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d requests, %.1f/s, p50=%.2fms p99=%.2fms, %d errors",
+                    host, latency.count(), throughput(),
+                    latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0, errors());
+        }
+    }
+}
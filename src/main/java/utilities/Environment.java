@@ -0,0 +1,88 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * This class resolves the configuration of the test suite once per JVM.
+ *
+ * A key is looked up in this order:
+ * 1. JVM system property, e.g. -DHOST=http://differ:8081
+ * 2. Environment variable, e.g. HOST=http://differ:8081
+ * 3. The environment property file in the resources folder of the project
+ *
+ * @author Adebowale Otulana
+ */
+public final class Environment {
+
+    public static final Path ENVIRONMENT_FILE = Paths.get(System.getProperty("user.dir"),
+            "src", "main", "resources", "environment.properties");
+
+    private static final Properties file = load();
+
+    private Environment() {
+    }
+
+    /**
+     * @param key
+     *        Configuration key, e.g. HOST
+     *
+     * @return The resolved value, or null if the key is not configured anywhere
+     **/
+    public static String get(String key) {
+        String value = System.getProperty(key);
+
+        if (value == null)
+            value = System.getenv(key);
+
+        if (value == null)
+            value = file.getProperty(key);
+
+        return value;
+    }
+
+    /**
+     * @param key
+     *        Configuration key
+     *
+     * @param defaultValue
+     *        Value used when the key is not configured anywhere
+     *
+     * @return The resolved value
+     **/
+    public static String get(String key, String defaultValue) {
+        String value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @return The values of the environment property file, overridden by system properties and environment variables
+     **/
+    public static Properties properties() {
+        Properties resolved = new Properties();
+
+        for (String key : file.stringPropertyNames())
+            resolved.setProperty(key, get(key));
+
+        return resolved;
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+
+        //The file is optional when everything is set through system properties or environment variables
+        if (Files.exists(ENVIRONMENT_FILE)) {
+            try (InputStream environmentFile = Files.newInputStream(ENVIRONMENT_FILE)) {
+                properties.load(environmentFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + ENVIRONMENT_FILE, e);
+            }
+        }
+        return properties;
+    }
+}
@@ -3,13 +3,20 @@ package utilities;
 import com.aventstack.extentreports.ExtentReports;
 import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.Status;
+import com.aventstack.extentreports.markuputils.MarkupHelper;
 import com.aventstack.extentreports.reporter.ExtentSparkReporter;
+import com.aventstack.extentreports.reporter.JsonFormatter;
 import com.aventstack.extentreports.reporter.configuration.Theme;
 import org.testng.*;
 import org.testng.xml.XmlSuite;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -17,28 +24,266 @@ import java.util.Map;
  * to listen to the TestNG tests
  * and generates a test report in HTML format
  *
+ * When the suite runs as one of several shards, the report is written
+ * as a JSON archive instead, which {@link ShardedSuiteRunner} merges
+ * into a single HTML report once every shard has finished.
+ *
+ * The durations, request latencies and throughput of every run are kept in the {@link TrendStore}
+ * and shown as trend charts, flagging the ones that drift outside their historical band.
+ *
  */
 public class ExtentReporterNG implements IReporter {
-    private final ExtentSparkReporter html = new ExtentSparkReporter("./test-output/TestReport.html");
+    public static final String REPORT_FILE = "./test-output/TestReport.html";
+    public static final String SHARD_ARCHIVE_FOLDER = "./test-output/shards/";
+
     private com.aventstack.extentreports.ExtentReports extent;
 
     public void generateReport(List<XmlSuite> xmlSuites, List<ISuite> suites, String outputDirectory) {
-        html.config().setTheme(Theme.DARK);
         extent = new ExtentReports();
-        extent.attachReporter(html);
+
+        if (Shard.isSharded())
+            extent.attachReporter(new JsonFormatter(SHARD_ARCHIVE_FOLDER + Shard.name() + ".json"));
+        else
+            extent.attachReporter(htmlReporter());
+
+        for (Map.Entry<String, String> measurement : StartupTimer.measurements().entrySet())
+            extent.setSystemInfo(measurement.getKey(), measurement.getValue());
+
+        for (Map.Entry<String, String> measurement : ServiceReadiness.results().entrySet())
+            extent.setSystemInfo("Differ cold start: " + measurement.getKey(), measurement.getValue());
+
+        extent.setSystemInfo("Git commit", TrendStore.commit());
+        extent.setSystemInfo("Differ build", TrendStore.differBuild());
+        extent.setSystemInfo("Payload cache", PayloadCache.summary());
+
+        DifferInstances instances = DifferInstances.current();
+        if (instances != null)
+            extent.setSystemInfo("Differ instances", instances.summary().replace("\n", "<br>"));
+
+        long suiteStart = Long.MAX_VALUE;
+        long suiteEnd = 0;
 
         for (ISuite suite : suites) {
             Map<String, ISuiteResult> result = suite.getResults();
 
             for (ISuiteResult r : result.values()) {
                 ITestContext context = r.getTestContext();
+                suiteStart = Math.min(suiteStart, context.getStartDate().getTime());
+                suiteEnd = Math.max(suiteEnd, context.getEndDate().getTime());
 
                 buildTestNodes(context.getPassedTests(), Status.PASS);
                 buildTestNodes(context.getFailedTests(), Status.FAIL);
                 buildTestNodes(context.getSkippedTests(), Status.SKIP);
             }
         }
+
+        for (HotSpots hotSpots : FlightRecording.summaries())
+            buildHotSpotNode(hotSpots);
+
+        if (!ResourceSampler.samples().isEmpty())
+            buildResourceNode();
+
+        List<SlowRequestWatchdog.Capture> unattributed = SlowRequestWatchdog.unattributedCaptures();
+        if (!unattributed.isEmpty()) {
+            ExtentTest test = extent.createTest("Slow Requests ---> outside of the tests");
+            addSlowRequests(test, unattributed);
+        }
+
+        if (suiteEnd > suiteStart)
+            buildTrendNode((suiteEnd - suiteStart) / 1000.0);
+
+        //The harness logs through the TestNG reporter, see HarnessLog
+        extent.addTestRunnerOutput(Reporter.getOutput());
         extent.flush();
+
+        try {
+            TrendStore.save();
+        } catch (IOException e) {
+            HarnessLog.log("Could not save performance trends: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The HTML reporter for the final test report
+     **/
+    public static ExtentSparkReporter htmlReporter() {
+        ExtentSparkReporter html = new ExtentSparkReporter(REPORT_FILE);
+        html.config().setTheme(Theme.DARK);
+        return html;
+    }
+
+    private void buildHotSpotNode(HotSpots hotSpots) {
+        ExtentTest test = extent.createTest("Flight Recording ---> " + hotSpots.getSource() + " hot spots");
+        test.assignCategory("profiling");
+
+        if (Shard.isSharded())
+            test.assignCategory(Shard.name());
+
+        test.info(String.format(Locale.ROOT, "%d CPU samples, %.1f MB allocated, recording in %s",
+                hotSpots.getCpuSamples(), hotSpots.getAllocatedBytes() / 1e6, hotSpots.getRecording()));
+
+        for (Map.Entry<String, String[][]> table : hotSpots.tables(FlightRecording.top()).entrySet()) {
+            test.info(table.getKey());
+            test.info(MarkupHelper.createTable(table.getValue()));
+        }
+    }
+
+    /**
+     * Charts the request latency of every sampling window next to the resources of the differ in the same window,
+     * and lists the slowest windows
+     **/
+    private void buildResourceNode() {
+        List<ResourceSampler.Sample> samples = ResourceSampler.samples();
+        ExtentTest test = extent.createTest("Differ Resources ---> " + ResourceSampler.runName());
+        test.assignCategory("resources");
+
+        if (Shard.isSharded())
+            test.assignCategory(Shard.name());
+
+        test.info(samples.size() + " windows, " + ResourceSampler.correlation());
+
+        List<ResourceSampler.Sample> slowest = ResourceSampler.slowest(5);
+        String[][] table = new String[slowest.size() + 1][];
+        table[0] = new String[] {"Window (s)", "Requests", "p99 (ms)", "CPU (%)", "RSS (MB)", "Threads", "Heap (MB)", "GCs", "GC (ms)"};
+        for (int i = 0; i < slowest.size(); i++) {
+            String[] row = slowest.get(i).csv().split(",", -1);
+            table[i + 1] = new String[] {row[1], row[2], row[4], row[6], row[7], row[8], row[9], row[10], row[11]};
+        }
+        test.info("Slowest windows");
+        test.info(MarkupHelper.createTable(table));
+
+        //One point per window, so the charts line up
+        double[][] series = new double[6][samples.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            ResourceSampler.Sample sample = samples.get(i);
+            series[0][i] = sample.p99Millis;
+            series[1][i] = sample.cpuPercent;
+            series[2][i] = sample.rssMegabytes;
+            series[3][i] = sample.heapUsedMegabytes;
+            series[4][i] = sample.gcMillis;
+            series[5][i] = sample.threads;
+        }
+        String[] titles = {"Request p99 (ms)", "Differ CPU (%)", "Differ RSS (MB)", "Differ heap used (MB)", "Differ GC time (ms)", "Differ threads"};
+        for (int i = 0; i < titles.length; i++) {
+            if (known(series[i])) {
+                //A window the differ could not be read in is drawn at zero
+                for (int j = 0; j < series[i].length; j++)
+                    series[i][j] = Double.isNaN(series[i][j]) ? 0 : Math.max(0, series[i][j]);
+                test.info(new TrendChart(titles[i], series[i], null, false));
+            }
+        }
+    }
+
+    /**
+     * @return true if the differ was sampled for this series, unknown values are NaN or -1
+     **/
+    private static boolean known(double[] values) {
+        for (double value : values) {
+            if (!Double.isNaN(value) && value >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Attaches the diagnostics the {@link SlowRequestWatchdog} captured while requests of the test were hanging
+     **/
+    private static void addSlowRequests(ExtentTest test, List<SlowRequestWatchdog.Capture> captures) {
+        if (captures.isEmpty())
+            return;
+
+        test.assignCategory("slow-request");
+        for (SlowRequestWatchdog.Capture capture : captures) {
+            test.warning("Slow request: " + capture.describe()
+                    + (capture.getFile() != null ? ", diagnostics in " + capture.getFile() : ""));
+            test.info("Harness threads, the waiting one first");
+            test.info(MarkupHelper.createCodeBlock(escape(capture.getHarnessThreadDump())));
+
+            if (capture.getDifferThreadDump() != null) {
+                test.info("Differ threads");
+                test.info(MarkupHelper.createCodeBlock(escape(capture.getDifferThreadDump())));
+            }
+        }
+    }
+
+    /**
+     * Stack frames such as &lt;init&gt; would otherwise be taken for HTML tags
+     **/
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Records the request latencies and throughput of this run in the {@link TrendStore}
+     * and adds their trend charts, with every metric that drifts outside its historical band.
+     *
+     * @param suiteSeconds
+     *        Wall-clock duration of the suite
+     **/
+    private void buildTrendNode(double suiteSeconds) {
+        long requests = 0;
+        for (Map.Entry<String, LatencyHistogram> endpoint : HarnessMetrics.latencies().entrySet()) {
+            LatencyHistogram latency = endpoint.getValue();
+            requests += latency.count();
+
+            TrendStore.record("endpoint." + endpoint.getKey() + ".p50_ms", latency.percentile(50) / 1000.0);
+            TrendStore.record("endpoint." + endpoint.getKey() + ".p99_ms", latency.percentile(99) / 1000.0);
+        }
+        if (requests == 0)
+            return;
+        TrendStore.record("suite.throughput_per_s", requests / suiteSeconds);
+
+        ExtentTest test = extent.createTest("Performance Trends ---> commit " + TrendStore.commit()
+                + ", differ build " + TrendStore.differBuild());
+        test.assignCategory("trends");
+
+        if (Shard.isSharded())
+            test.assignCategory(Shard.name());
+
+        List<String> drifting = TrendStore.drifting();
+        if (drifting.isEmpty()) {
+            test.pass("No metric drifted outside its historical band");
+        } else {
+            String[][] table = new String[drifting.size() + 1][];
+            table[0] = new String[] {"Metric", "This run", "Band"};
+            for (int i = 0; i < drifting.size(); i++) {
+                double[] trend = TrendStore.trend(drifting.get(i));
+                double[] band = TrendStore.band(drifting.get(i));
+                table[i + 1] = new String[] {drifting.get(i), String.format(Locale.ROOT, "%.2f", trend[trend.length - 1]),
+                        String.format(Locale.ROOT, "%.2f - %.2f", band[0], band[1])};
+            }
+            test.warning(drifting.size() + " metrics drifted outside their historical band");
+            test.info(MarkupHelper.createTable(table));
+        }
+
+        for (String endpoint : HarnessMetrics.latencies().keySet()) {
+            test.info(chart("endpoint." + endpoint + ".p50_ms"));
+            test.info(chart("endpoint." + endpoint + ".p99_ms"));
+        }
+        test.info(chart("suite.throughput_per_s"));
+    }
+
+    private static TrendChart chart(String metric) {
+        return new TrendChart(metric, TrendStore.trend(metric), TrendStore.band(metric), TrendStore.drifts(metric));
+    }
+
+    /**
+     * @return The duration metric of a test, e.g. test.requests.FilePayloadTest.when_...[equal-text].duration_ms;
+     * every invocation by a data provider gets a metric of its own, named by its parameters
+     **/
+    private static String durationMetric(ITestResult result) {
+        StringBuilder metric = new StringBuilder("test.").append(TestScheduler.qualifiedName(result.getMethod()));
+
+        if (result.getParameters().length > 0) {
+            //A fixture is passed by name and folder, which is named the same
+            Set<String> parameters = new LinkedHashSet<>();
+            for (Object parameter : result.getParameters()) {
+                //The folder of a fixture differs between machines, its name does not
+                parameters.add(parameter instanceof Path ? String.valueOf(((Path) parameter).getFileName()) : String.valueOf(parameter));
+            }
+            metric.append('[').append(String.join(";", parameters)).append(']');
+        }
+        return metric.append(".duration_ms").toString();
     }
 
     private void buildTestNodes(IResultMap tests, Status status) {
@@ -52,13 +297,33 @@ public class ExtentReporterNG implements IReporter {
                 for (String group : result.getMethod().getGroups())
                     test.assignCategory(group);
 
+                if (Shard.isSharded())
+                    test.assignCategory(Shard.name());
+
                 String message = "Test " + status.toString().toLowerCase() + "ed";
 
                 if (result.getThrowable() != null)
                     message = result.getThrowable().getMessage();
 
                 test.log(status, message);
+                for (String line : Reporter.getOutput(result))
+                    test.info(escape(line));
+                addSlowRequests(test, SlowRequestWatchdog.captures(result));
+
+                //Skipped tests did not run, their duration is not part of the trend
+                if (status != Status.SKIP) {
+                    String metric = durationMetric(result);
+                    TrendStore.record(metric, result.getEndMillis() - result.getStartMillis());
+
+                    if (TrendStore.drifts(metric)) {
+                        double[] band = TrendStore.band(metric);
+                        test.warning(String.format(Locale.ROOT, "Duration drifted outside its historical band of %.0f - %.0f ms",
+                                band[0], band[1]));
+                        test.assignCategory("drift");
+                    }
+                    test.info(chart(metric));
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,208 @@
+package utilities;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * This class calls the Java Flight Recorder API (jdk.jfr) reflectively for {@link FlightRecording} and {@link HotSpots}.
+ *
+ * The API is only part of JDK 8 from update 262 on, so the harness must compile and run without it:
+ * on an older JDK, {@link #isAvailable()} is false and nothing is recorded.
+ *
+ * @author Adebowale Otulana
+ */
+final class FlightRecorderApi {
+
+    private static final boolean AVAILABLE = exists("jdk.jfr.Recording");
+
+    private static final Method GET_CONFIGURATION = method("jdk.jfr.Configuration", "getConfiguration", String.class);
+    private static final Method SET_NAME = method("jdk.jfr.Recording", "setName", String.class);
+    private static final Method START = method("jdk.jfr.Recording", "start");
+    private static final Method STOP = method("jdk.jfr.Recording", "stop");
+    private static final Method DUMP = method("jdk.jfr.Recording", "dump", Path.class);
+    private static final Method CLOSE = method("jdk.jfr.Recording", "close");
+
+    private static final Method HAS_MORE_EVENTS = method("jdk.jfr.consumer.RecordingFile", "hasMoreEvents");
+    private static final Method READ_EVENT = method("jdk.jfr.consumer.RecordingFile", "readEvent");
+    private static final Method CLOSE_FILE = method("jdk.jfr.consumer.RecordingFile", "close");
+
+    private static final Method GET_EVENT_TYPE = method("jdk.jfr.consumer.RecordedEvent", "getEventType");
+    private static final Method GET_TYPE_NAME = method("jdk.jfr.EventType", "getName");
+    private static final Method GET_STACK_TRACE = method("jdk.jfr.consumer.RecordedEvent", "getStackTrace");
+    private static final Method HAS_FIELD = method("jdk.jfr.consumer.RecordedEvent", "hasField", String.class);
+    private static final Method GET_LONG = method("jdk.jfr.consumer.RecordedEvent", "getLong", String.class);
+    private static final Method GET_FRAMES = method("jdk.jfr.consumer.RecordedStackTrace", "getFrames");
+    private static final Method IS_JAVA_FRAME = method("jdk.jfr.consumer.RecordedFrame", "isJavaFrame");
+    private static final Method GET_METHOD = method("jdk.jfr.consumer.RecordedFrame", "getMethod");
+    private static final Method GET_TYPE = method("jdk.jfr.consumer.RecordedMethod", "getType");
+    private static final Method GET_CLASS_NAME = method("jdk.jfr.consumer.RecordedClass", "getName");
+    private static final Method GET_METHOD_NAME = method("jdk.jfr.consumer.RecordedMethod", "getName");
+
+    private FlightRecorderApi() {
+    }
+
+    /**
+     * @return true if the JDK running the harness has the Flight Recorder API
+     **/
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Starts a recording of this JVM
+     *
+     * @param settings
+     *        JFR settings to record with, e.g. profile
+     *
+     * @return The recording, an instance of jdk.jfr.Recording
+     **/
+    static Object start(String name, String settings) throws IOException {
+        Object configuration = invokeWithIO(GET_CONFIGURATION, null, settings);
+        Object recording;
+        try {
+            recording = Class.forName("jdk.jfr.Recording").getConstructor(Class.forName("jdk.jfr.Configuration"))
+                    .newInstance(configuration);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Flight recording not created", e);
+        }
+        invoke(SET_NAME, recording, name);
+        invoke(START, recording);
+        return recording;
+    }
+
+    /**
+     * Stops a recording and writes it to a file
+     **/
+    static void stopAndDump(Object recording, Path file) throws IOException {
+        invoke(STOP, recording);
+        invokeWithIO(DUMP, recording, file);
+    }
+
+    static void close(Object recording) {
+        invoke(CLOSE, recording);
+    }
+
+    /**
+     * Hands every event of a recording file, an instance of jdk.jfr.consumer.RecordedEvent, to the consumer
+     **/
+    static void readEvents(Path file, Consumer<Object> events) throws IOException {
+        Object recordingFile;
+        try {
+            recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile").getConstructor(Path.class).newInstance(file);
+        } catch (InvocationTargetException e) {
+            throw rethrow(e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Flight recording not opened", e);
+        }
+
+        try {
+            while ((Boolean) invoke(HAS_MORE_EVENTS, recordingFile))
+                events.accept(invokeWithIO(READ_EVENT, recordingFile));
+        } finally {
+            invokeWithIO(CLOSE_FILE, recordingFile);
+        }
+    }
+
+    /**
+     * @return The name of the event type, e.g. jdk.ExecutionSample
+     **/
+    static String eventType(Object event) {
+        return (String) invoke(GET_TYPE_NAME, invoke(GET_EVENT_TYPE, event));
+    }
+
+    /**
+     * @return The frames of the stack trace of the event, the top of the stack first; empty if it has none
+     **/
+    static List<?> frames(Object event) {
+        Object stackTrace = invoke(GET_STACK_TRACE, event);
+        return stackTrace == null ? Collections.emptyList() : (List<?>) invoke(GET_FRAMES, stackTrace);
+    }
+
+    static boolean hasField(Object event, String field) {
+        return (Boolean) invoke(HAS_FIELD, event, field);
+    }
+
+    static long getLong(Object event, String field) {
+        return (Long) invoke(GET_LONG, event, field);
+    }
+
+    static boolean isJavaFrame(Object frame) {
+        return (Boolean) invoke(IS_JAVA_FRAME, frame);
+    }
+
+    /**
+     * @return The name of the class of the method of a frame, e.g. utilities.TestUtililities
+     **/
+    static String className(Object frame) {
+        return (String) invoke(GET_CLASS_NAME, invoke(GET_TYPE, invoke(GET_METHOD, frame)));
+    }
+
+    static String methodName(Object frame) {
+        return (String) invoke(GET_METHOD_NAME, invoke(GET_METHOD, frame));
+    }
+
+    private static boolean exists(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The public method of a Flight Recorder class, null if the API is not available
+     **/
+    private static Method method(String className, String name, Class<?>... parameterTypes) {
+        if (!AVAILABLE)
+            return null;
+        try {
+            return Class.forName(className).getMethod(name, parameterTypes);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Flight Recorder API without " + className + "." + name, e);
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) {
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(method.getName() + " failed", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(method.getName() + " is not accessible", e);
+        }
+    }
+
+    /**
+     * Invokes a method that declares an IOException, e.g. Recording.dump
+     **/
+    private static Object invokeWithIO(Method method, Object target, Object... arguments) throws IOException {
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException e) {
+            throw rethrow(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(method.getName() + " is not accessible", e);
+        }
+    }
+
+    /**
+     * @return The IOException thrown by the invoked method, wrapped otherwise
+     **/
+    private static IOException rethrow(InvocationTargetException e) throws IOException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException)
+            return (IOException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        //Configuration.getConfiguration throws a ParseException for a broken settings file
+        throw new IOException(cause);
+    }
+}
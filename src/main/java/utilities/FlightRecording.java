@@ -0,0 +1,225 @@
+package utilities;
+
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records a Java Flight Recorder session around a suite or load run
+ * and summarizes it into CPU and allocation hot spots (see {@link HotSpots}),
+ * to tell whether time goes into the harness or into the differ.
+ *
+ * When the differ runs as a local JVM and DIFFER_PID is set, the differ is recorded too, through jcmd.
+ * The Flight Recorder API is called through {@link FlightRecorderApi}, so on a JDK 8 before update 262,
+ * which does not have it, the harness runs without recording.
+ * The recordings and a plain text summary are written to test-output/jfr,
+ * and {@link ExtentReporterNG} adds the hot spot tables to the test report.
+ *
+ * Configuration (see {@link Environment}):
+ * JFR - true to record, default false
+ * JFR_SETTINGS - JFR settings to record with, default profile
+ * JFR_TOP - number of methods per hot spot table, default 15
+ * DIFFER_PID - process ID of a local differ JVM to record as well, not set by default
+ *
+ * @author Adebowale Otulana
+ */
+public class FlightRecording implements ISuiteListener {
+
+    public static final Path OUTPUT_FOLDER = Paths.get("test-output", "jfr");
+
+    private static final String DIFFER_RECORDING = "differ-harness-run";
+    private static final long JCMD_TIMEOUT_SECONDS = 30;
+
+    private static Object recording;
+    private static String name;
+    private static boolean recordingDiffer;
+    private static volatile List<HotSpots> summaries = Collections.emptyList();
+
+    public void onStart(ISuite suite) {
+        startIfConfigured("suite");
+    }
+
+    public void onFinish(ISuite suite) {
+        stop();
+    }
+
+    /**
+     * Starts recording the harness, and the differ if DIFFER_PID is set, when JFR is enabled.
+     * Does nothing when it is not enabled or a recording is already running.
+     *
+     * @param runName
+     *        Name of the run, used in the file names, e.g. suite or saturation
+     **/
+    public static synchronized void startIfConfigured(String runName) {
+        if (!Boolean.parseBoolean(Environment.get("JFR", "false")) || recording != null)
+            return;
+
+        if (!FlightRecorderApi.isAvailable()) {
+            HarnessLog.log("Flight recording not started: JDK " + System.getProperty("java.version") + " has no Flight Recorder");
+            return;
+        }
+
+        name = Shard.isSharded() ? runName + "-" + Shard.name() : runName;
+        String settings = Environment.get("JFR_SETTINGS", "profile");
+
+        try {
+            recording = FlightRecorderApi.start(name, settings);
+        } catch (IOException e) {
+            HarnessLog.log("Flight recording not started: " + e);
+            return;
+        }
+
+        String differPid = Environment.get("DIFFER_PID");
+        if (differPid != null && !differPid.trim().isEmpty())
+            recordingDiffer = jcmd(differPid.trim(), "JFR.start", "name=" + DIFFER_RECORDING, "settings=" + settings);
+
+        HarnessLog.log("Flight recording started" + (recordingDiffer ? ", differ included" : ""));
+    }
+
+    /**
+     * Stops the recordings started by {@link #startIfConfigured}, writes them to test-output/jfr
+     * and summarizes their hot spots into a text file next to them. Does nothing when nothing is being recorded.
+     *
+     * @return The hot spots of the harness, and of the differ if it was recorded
+     **/
+    public static synchronized List<HotSpots> stop() {
+        if (recording == null)
+            return summaries;
+
+        List<HotSpots> hotSpots = new ArrayList<>();
+        try {
+            Files.createDirectories(OUTPUT_FOLDER);
+
+            Path harnessFile = OUTPUT_FOLDER.resolve(name + "-harness.jfr");
+            FlightRecorderApi.stopAndDump(recording, harnessFile);
+            hotSpots.add(HotSpots.analyze("Harness", harnessFile));
+
+            if (recordingDiffer) {
+                //jcmd hands the path to the differ, which may run in another working directory
+                Path differFile = OUTPUT_FOLDER.resolve(name + "-differ.jfr").toAbsolutePath();
+                String differPid = Environment.get("DIFFER_PID").trim();
+
+                if (jcmd(differPid, "JFR.dump", "name=" + DIFFER_RECORDING, "filename=" + differFile)
+                        && Files.exists(differFile))
+                    hotSpots.add(HotSpots.analyze("Differ", differFile));
+                jcmd(differPid, "JFR.stop", "name=" + DIFFER_RECORDING);
+            }
+
+            StringBuilder text = new StringBuilder();
+            for (HotSpots summary : hotSpots)
+                text.append(summary.summary(top())).append(System.lineSeparator());
+
+            Path summaryFile = OUTPUT_FOLDER.resolve(name + "-hotspots.txt");
+            Files.write(summaryFile, text.toString().getBytes(StandardCharsets.UTF_8));
+            HarnessLog.log(text.toString());
+        } catch (IOException e) {
+            HarnessLog.log("Flight recording not summarized: " + e);
+        } finally {
+            FlightRecorderApi.close(recording);
+            recording = null;
+            recordingDiffer = false;
+        }
+
+        summaries = Collections.unmodifiableList(hotSpots);
+        return summaries;
+    }
+
+    /**
+     * @return The hot spots of the last recording, empty if nothing was recorded
+     **/
+    public static List<HotSpots> summaries() {
+        return summaries;
+    }
+
+    /**
+     * @return The number of methods per hot spot table
+     **/
+    public static int top() {
+        return Integer.parseInt(Environment.get("JFR_TOP", "15"));
+    }
+
+    /**
+     * Runs a diagnostic command in another JVM with the jcmd of the JDK running the harness.
+     *
+     * @return true if the command succeeded
+     **/
+    private static boolean jcmd(String pid, String... command) {
+        String output = jcmdOutput(pid, command);
+
+        //JFR commands report their failures with an exit code of 0
+        if (output != null && output.contains("Exception")) {
+            HarnessLog.log("jcmd " + String.join(" ", command) + " failed for the differ: " + output);
+            return false;
+        }
+        return output != null;
+    }
+
+    /**
+     * Runs a diagnostic command in another JVM with the jcmd of the JDK running the harness,
+     * e.g. Thread.print for {@link SlowRequestWatchdog}.
+     *
+     * @return The output of the command, null if it failed
+     **/
+    static String jcmdOutput(String pid, String... command) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add(jcmdExecutable());
+        arguments.add(pid);
+        arguments.addAll(Arrays.asList(command));
+
+        try {
+            Process process = new ProcessBuilder(arguments).redirectErrorStream(true).start();
+            String output;
+            try (InputStream in = process.getInputStream()) {
+                output = new String(readAll(in), StandardCharsets.UTF_8).trim();
+            }
+
+            boolean exited = process.waitFor(JCMD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            boolean succeeded = exited && process.exitValue() == 0;
+            if (!succeeded) {
+                HarnessLog.log("jcmd " + String.join(" ", command) + " failed for the differ: " + output);
+                return null;
+            }
+            return output;
+        } catch (IOException e) {
+            HarnessLog.log("jcmd " + String.join(" ", command) + " failed for the differ: " + e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * java.home is the jre folder of a JDK 8 and the JDK itself from JDK 9 on
+     **/
+    private static String jcmdExecutable() {
+        File javaHome = new File(System.getProperty("java.home"));
+        for (File folder : new File[] {javaHome, javaHome.getParentFile()}) {
+            File jcmd = new File(new File(folder, "bin"), File.separatorChar == '\\' ? "jcmd.exe" : "jcmd");
+            if (jcmd.isFile())
+                return jcmd.getPath();
+        }
+        return "jcmd";
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) > 0; )
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
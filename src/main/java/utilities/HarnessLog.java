@@ -0,0 +1,29 @@
+package utilities;
+
+import org.testng.Reporter;
+
+/**
+ * This class logs the messages of the harness: into the TestNG reporter output,
+ * which {@link ExtentReporterNG} adds to the test report, so a suite run keeps the console to TestNG.
+ * The load modes and tools have no report; they call {@link #toConsole()} first to print the messages instead.
+ *
+ * @author Adebowale Otulana
+ */
+public final class HarnessLog {
+
+    private static volatile boolean console;
+
+    private HarnessLog() {
+    }
+
+    /**
+     * Prints every following message as well, for the load modes and tools run with exec:java
+     **/
+    public static void toConsole() {
+        console = true;
+    }
+
+    public static void log(String message) {
+        Reporter.log(message, console);
+    }
+}
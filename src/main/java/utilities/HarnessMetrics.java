@@ -0,0 +1,272 @@
+package utilities;
+
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the live metrics of the harness while a run is going on:
+ * requests by endpoint and status, request latencies, bytes sent and received,
+ * requests of each differ instance, diff workflows in flight, payload cache lookups and assertion failures.
+ *
+ * Every metric is a striped counter ({@link LongAdder}, {@link LatencyHistogram}),
+ * so request threads never block each other and a scrape never blocks them.
+ * {@link MetricsServer} exposes the metrics in the OpenMetrics text format.
+ *
+ * @author Adebowale Otulana
+ */
+public class HarnessMetrics implements ITestListener {
+
+    /**
+     * Upper bounds of the exposed latency buckets in seconds
+     **/
+    private static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private static final LongAdder workflowsInFlight = new LongAdder();
+    private static final LongAdder assertionFailures = new LongAdder();
+    private static final LongAdder testsPassed = new LongAdder();
+    private static final LongAdder testsFailed = new LongAdder();
+    private static final LongAdder testsSkipped = new LongAdder();
+
+    /**
+     * Records one request that got a response.
+     *
+     * @param method
+     *        HTTP method, e.g. POST
+     *
+     * @param endpoint
+     *        Path template of the request, one of the {@link Endpoints} paths
+     *
+     * @param status
+     *        HTTP status code of the response
+     *
+     * @param micros
+     *        Latency in microseconds
+     *
+     * @param bytesSent
+     *        Request body bytes
+     *
+     * @param bytesReceived
+     *        Response body bytes, -1 if the response has no Content-Length
+     **/
+    public static void recordRequest(String method, String endpoint, int status, long micros, long bytesSent, long bytesReceived) {
+        EndpointMetrics metrics = endpoint(method, endpoint);
+        metrics.status(status).increment();
+        metrics.latency.record(micros);
+        metrics.bytesSent.add(bytesSent);
+        if (bytesReceived > 0)
+            metrics.bytesReceived.add(bytesReceived);
+        ResourceSampler.record(micros);
+    }
+
+    /**
+     * Records one request that failed without a response, e.g. because the connection was refused.
+     **/
+    public static void recordError(String method, String endpoint, long micros, long bytesSent) {
+        EndpointMetrics metrics = endpoint(method, endpoint);
+        metrics.errors.increment();
+        metrics.latency.record(micros);
+        metrics.bytesSent.add(bytesSent);
+        ResourceSampler.record(micros);
+    }
+
+    public static void workflowStarted() {
+        workflowsInFlight.increment();
+    }
+
+    public static void workflowFinished() {
+        workflowsInFlight.decrement();
+    }
+
+    public void onTestStart(ITestResult result) {
+    }
+
+    public void onTestSuccess(ITestResult result) {
+        testsPassed.increment();
+    }
+
+    public void onTestFailure(ITestResult result) {
+        testsFailed.increment();
+        if (result.getThrowable() instanceof AssertionError)
+            assertionFailures.increment();
+    }
+
+    public void onTestSkipped(ITestResult result) {
+        testsSkipped.increment();
+    }
+
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        onTestFailure(result);
+    }
+
+    public void onStart(ITestContext context) {
+    }
+
+    public void onFinish(ITestContext context) {
+    }
+
+    /**
+     * @return The current value of every metric in the OpenMetrics text format
+     **/
+    public static String scrape() {
+        StringBuilder text = new StringBuilder(4096);
+
+        text.append("# TYPE differ_harness_requests counter\n")
+                .append("# HELP differ_harness_requests Requests sent to the differ that got a response.\n");
+        for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet()) {
+            for (int status = 0; status < EndpointMetrics.STATUS_CODES; status++) {
+                LongAdder counter = entry.getValue().statuses.get(status);
+                if (counter != null)
+                    sample(text, "differ_harness_requests_total", entry.getValue().labels + ",status=\"" + status + "\"", counter.sum());
+            }
+        }
+
+        text.append("# TYPE differ_harness_request_errors counter\n")
+                .append("# HELP differ_harness_request_errors Requests sent to the differ that failed without a response.\n");
+        for (EndpointMetrics metrics : endpoints.values())
+            sample(text, "differ_harness_request_errors_total", metrics.labels, metrics.errors.sum());
+
+        text.append("# TYPE differ_harness_request_duration_seconds histogram\n")
+                .append("# UNIT differ_harness_request_duration_seconds seconds\n")
+                .append("# HELP differ_harness_request_duration_seconds Latency of the requests sent to the differ.\n");
+        for (EndpointMetrics metrics : endpoints.values()) {
+            //Bounds are resolved to the histogram buckets, so they are accurate to about 6%
+            for (double bucket : LATENCY_BUCKETS) {
+                long count = metrics.latency.countAtOrBelow((long) (bucket * 1_000_000));
+                sample(text, "differ_harness_request_duration_seconds_bucket", metrics.labels + ",le=\"" + bucket + "\"", count);
+            }
+            //The +Inf bucket and the count are read once, so they always agree
+            long count = metrics.latency.countAtOrBelow(Long.MAX_VALUE);
+            sample(text, "differ_harness_request_duration_seconds_bucket", metrics.labels + ",le=\"+Inf\"", count);
+            sample(text, "differ_harness_request_duration_seconds_count", metrics.labels, count);
+            sample(text, "differ_harness_request_duration_seconds_sum", metrics.labels, metrics.latency.sum() / 1e6);
+        }
+
+        text.append("# TYPE differ_harness_sent_bytes counter\n")
+                .append("# UNIT differ_harness_sent_bytes bytes\n")
+                .append("# HELP differ_harness_sent_bytes Request body bytes sent to the differ.\n");
+        for (EndpointMetrics metrics : endpoints.values())
+            sample(text, "differ_harness_sent_bytes_total", metrics.labels, metrics.bytesSent.sum());
+
+        text.append("# TYPE differ_harness_received_bytes counter\n")
+                .append("# UNIT differ_harness_received_bytes bytes\n")
+                .append("# HELP differ_harness_received_bytes Response body bytes received from the differ, of the responses with a Content-Length.\n");
+        for (EndpointMetrics metrics : endpoints.values())
+            sample(text, "differ_harness_received_bytes_total", metrics.labels, metrics.bytesReceived.sum());
+
+        text.append("# TYPE differ_harness_payload_cache_lookups counter\n")
+                .append("# HELP differ_harness_payload_cache_lookups Side request bodies looked up in the payload cache.\n");
+        sample(text, "differ_harness_payload_cache_lookups_total", "result=\"hit\"", PayloadCache.hits());
+        sample(text, "differ_harness_payload_cache_lookups_total", "result=\"miss\"", PayloadCache.misses());
+
+        text.append("# TYPE differ_harness_payload_cache_bytes gauge\n")
+                .append("# UNIT differ_harness_payload_cache_bytes bytes\n")
+                .append("# HELP differ_harness_payload_cache_bytes Estimated memory of the cached side request bodies.\n");
+        sample(text, "differ_harness_payload_cache_bytes", null, PayloadCache.bytes());
+
+        DifferInstances instances = DifferInstances.current();
+        if (instances != null) {
+            text.append("# TYPE differ_harness_instance_requests counter\n")
+                    .append("# HELP differ_harness_instance_requests Requests routed to each differ instance.\n");
+            for (DifferInstances.Instance instance : instances.instances())
+                sample(text, "differ_harness_instance_requests_total", instanceLabels(instance), instance.latency().count());
+
+            text.append("# TYPE differ_harness_instance_errors counter\n")
+                    .append("# HELP differ_harness_instance_errors Failed or non-2xx requests of each differ instance.\n");
+            for (DifferInstances.Instance instance : instances.instances())
+                sample(text, "differ_harness_instance_errors_total", instanceLabels(instance), instance.errors());
+
+            text.append("# TYPE differ_harness_instance_outstanding gauge\n")
+                    .append("# HELP differ_harness_instance_outstanding Requests in flight to each differ instance.\n");
+            for (DifferInstances.Instance instance : instances.instances())
+                sample(text, "differ_harness_instance_outstanding", instanceLabels(instance), (long) instance.outstanding());
+        }
+
+        text.append("# TYPE differ_harness_workflows_in_flight gauge\n")
+                .append("# HELP differ_harness_workflows_in_flight Diff workflows started and not finished yet.\n");
+        sample(text, "differ_harness_workflows_in_flight", null, workflowsInFlight.sum());
+
+        text.append("# TYPE differ_harness_assertion_failures counter\n")
+                .append("# HELP differ_harness_assertion_failures Tests that failed on an assertion.\n");
+        sample(text, "differ_harness_assertion_failures_total", null, assertionFailures.sum());
+
+        text.append("# TYPE differ_harness_tests counter\n")
+                .append("# HELP differ_harness_tests Finished tests by result.\n");
+        sample(text, "differ_harness_tests_total", "result=\"passed\"", testsPassed.sum());
+        sample(text, "differ_harness_tests_total", "result=\"failed\"", testsFailed.sum());
+        sample(text, "differ_harness_tests_total", "result=\"skipped\"", testsSkipped.sum());
+
+        return text.append("# EOF\n").toString();
+    }
+
+    /**
+     * @return The latencies of the requests that got a response, by method and path template, e.g. POST /{id}/{side}
+     **/
+    public static Map<String, LatencyHistogram> latencies() {
+        Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet())
+            latencies.put(entry.getKey(), entry.getValue().latency);
+        return latencies;
+    }
+
+    private static String instanceLabels(DifferInstances.Instance instance) {
+        return "instance=\"" + instance.host() + "\"";
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, long value) {
+        text.append(name);
+        if (labels != null)
+            text.append('{').append(labels).append('}');
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        text.append(name).append('{').append(labels).append('}')
+                .append(' ').append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    private static EndpointMetrics endpoint(String method, String endpoint) {
+        String key = method + ' ' + endpoint;
+
+        //Look up first, computeIfAbsent may lock even when the key is present
+        EndpointMetrics metrics = endpoints.get(key);
+        return metrics != null ? metrics : endpoints.computeIfAbsent(key, k -> new EndpointMetrics(method, endpoint));
+    }
+
+    /**
+     * The metrics of one method and path template.
+     **/
+    private static final class EndpointMetrics {
+        static final int STATUS_CODES = 600;
+
+        final String labels;
+        final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(STATUS_CODES);
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+
+        EndpointMetrics(String method, String endpoint) {
+            this.labels = "method=\"" + method + "\",endpoint=\"" + endpoint.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+
+        LongAdder status(int status) {
+            int index = status >= 0 && status < STATUS_CODES ? status : 0;
+
+            LongAdder counter = statuses.get(index);
+            if (counter == null) {
+                statuses.compareAndSet(index, null, new LongAdder());
+                counter = statuses.get(index);
+            }
+            return counter;
+        }
+    }
+}
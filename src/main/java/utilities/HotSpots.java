@@ -0,0 +1,204 @@
+package utilities;
+
+import io.restassured.filter.Filter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class summarizes a flight recording into its top CPU and allocation hot spots.
+ *
+ * Hot spots are reported twice: by the method at the top of the stack (where the time or memory goes)
+ * and by the first harness method on the stack (which harness code asked for it),
+ * so e.g. JSON mapping under response.as() is charged to the test helper that called it.
+ * RestAssured filters of the harness are skipped, as every request passes through them:
+ * the request is charged to the code that sent it.
+ * A recording of the differ has no harness frames and only gets the first kind.
+ *
+ * @author Adebowale Otulana
+ */
+public class HotSpots {
+
+    /**
+     * Packages of the harness, matched against the class of each frame
+     **/
+    private static final String[] HARNESS_PACKAGES = {"requests.", "utilities.", "load.", "hook."};
+
+    private static final Map<String, Boolean> harnessClasses = new ConcurrentHashMap<>();
+
+    private final String source;
+    private final Path recording;
+    private final Map<String, Long> cpuByMethod = new HashMap<>();
+    private final Map<String, Long> cpuByHarnessMethod = new HashMap<>();
+    private final Map<String, Long> allocationByMethod = new HashMap<>();
+    private final Map<String, Long> allocationByHarnessMethod = new HashMap<>();
+    private long cpuSamples;
+    private long allocatedBytes;
+
+    private HotSpots(String source, Path recording) {
+        this.source = source;
+        this.recording = recording;
+    }
+
+    /**
+     * @param source
+     *        What was recorded, e.g. harness or differ
+     *
+     * @param recording
+     *        The JFR file
+     **/
+    public static HotSpots analyze(String source, Path recording) throws IOException {
+        HotSpots hotSpots = new HotSpots(source, recording);
+
+        FlightRecorderApi.readEvents(recording, hotSpots::add);
+        return hotSpots;
+    }
+
+    /**
+     * @param event
+     *        A jdk.jfr.consumer.RecordedEvent
+     **/
+    private void add(Object event) {
+        String type = FlightRecorderApi.eventType(event);
+        boolean cpu = type.equals("jdk.ExecutionSample");
+        if (!cpu && !type.startsWith("jdk.ObjectAllocation"))
+            return;
+
+        List<?> frames = FlightRecorderApi.frames(event);
+        if (frames.isEmpty())
+            return;
+
+        if (cpu) {
+            cpuSamples++;
+            count(frames, 1, cpuByMethod, cpuByHarnessMethod);
+        } else {
+            long bytes = allocationWeight(event);
+            allocatedBytes += bytes;
+            count(frames, bytes, allocationByMethod, allocationByHarnessMethod);
+        }
+    }
+
+    /**
+     * Allocation events are samples: each one stands for the bytes of the TLAB it opened,
+     * the object allocated outside a TLAB, or the weight JDK 16+ gives the sample.
+     **/
+    private static long allocationWeight(Object event) {
+        if (FlightRecorderApi.hasField(event, "weight"))
+            return FlightRecorderApi.getLong(event, "weight");
+        if (FlightRecorderApi.hasField(event, "tlabSize"))
+            return FlightRecorderApi.getLong(event, "tlabSize");
+        return FlightRecorderApi.getLong(event, "allocationSize");
+    }
+
+    private static void count(List<?> frames, long weight, Map<String, Long> byMethod, Map<String, Long> byHarnessMethod) {
+        byMethod.merge(methodName(frames.get(0)), weight, Long::sum);
+
+        for (Object frame : frames) {
+            if (FlightRecorderApi.isJavaFrame(frame) && isHarnessClass(FlightRecorderApi.className(frame))) {
+                byHarnessMethod.merge(methodName(frame), weight, Long::sum);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true for a class in a harness package that is not a RestAssured filter
+     **/
+    private static boolean isHarnessClass(String type) {
+        return harnessClasses.computeIfAbsent(type, name -> {
+            for (String harnessPackage : HARNESS_PACKAGES) {
+                if (name.startsWith(harnessPackage))
+                    return !isFilter(name);
+            }
+            return false;
+        });
+    }
+
+    private static boolean isFilter(String type) {
+        try {
+            return Filter.class.isAssignableFrom(Class.forName(type, false, HotSpots.class.getClassLoader()));
+        } catch (ClassNotFoundException | LinkageError e) {
+            //A class of the differ, or one that is gone
+            return false;
+        }
+    }
+
+    private static String methodName(Object frame) {
+        return FlightRecorderApi.className(frame) + "." + FlightRecorderApi.methodName(frame);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Path getRecording() {
+        return recording;
+    }
+
+    public long getCpuSamples() {
+        return cpuSamples;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return The hot spot tables with a header row each, titled "CPU by method", "CPU by harness method",
+     *         "Allocation by method" and "Allocation by harness method". Empty tables are left out.
+     **/
+    public Map<String, String[][]> tables(int top) {
+        Map<String, String[][]> tables = new LinkedHashMap<>();
+        addTable(tables, "CPU by method", cpuByMethod, cpuSamples, "Samples", top);
+        addTable(tables, "CPU by harness method", cpuByHarnessMethod, cpuSamples, "Samples", top);
+        addTable(tables, "Allocation by method", allocationByMethod, allocatedBytes, "MB", top);
+        addTable(tables, "Allocation by harness method", allocationByHarnessMethod, allocatedBytes, "MB", top);
+        return tables;
+    }
+
+    private static void addTable(Map<String, String[][]> tables, String title, Map<String, Long> weights,
+                                 long total, String unit, int top) {
+        if (weights.isEmpty())
+            return;
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(weights.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        int rows = Math.min(top, entries.size());
+        String[][] table = new String[rows + 1][];
+        table[0] = new String[] {"Method", unit, "Share"};
+
+        for (int i = 0; i < rows; i++) {
+            Map.Entry<String, Long> entry = entries.get(i);
+            String value = unit.equals("MB")
+                    ? String.format(Locale.ROOT, "%.1f", entry.getValue() / 1e6)
+                    : String.valueOf(entry.getValue());
+            table[i + 1] = new String[] {entry.getKey(), value,
+                    String.format(Locale.ROOT, "%.1f%%", 100.0 * entry.getValue() / total)};
+        }
+        tables.put(title, table);
+    }
+
+    /**
+     * @return The hot spot tables as plain text, for the console and the summary file
+     **/
+    public String summary(int top) {
+        StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+                "%s hot spots (%s): %d CPU samples, %.1f MB allocated%n",
+                source, recording, cpuSamples, allocatedBytes / 1e6));
+
+        for (Map.Entry<String, String[][]> table : tables(top).entrySet()) {
+            summary.append(String.format("%n  %s%n", table.getKey()));
+            for (String[] row : table.getValue())
+                summary.append(String.format("  %-80s %12s %8s%n", row[0], row[1], row[2]));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package utilities;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records latencies in microseconds into log-linear buckets.
+ *
+ * Every power of two is split into 16 buckets, so a reported percentile
+ * is within about 6% of the recorded value. Buckets are striped counters,
+ * so any number of threads can record without locking or blocking each other.
+ *
+ * @author Adebowale Otulana
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param micros
+     *        Latency in microseconds, negative values are recorded as 0
+     **/
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        buckets[bucketOf(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since a System.nanoTime() timestamp.
+     **/
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    /**
+     * @param percentile
+     *        Between 0 and 100, e.g. 99.9
+     *
+     * @return The upper bound of the bucket holding the percentile in microseconds, 0 if nothing was recorded
+     **/
+    public long percentile(double percentile) {
+        long n = count();
+        if (n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), max());
+        }
+        return max();
+    }
+
+    /**
+     * @param micros
+     *        Upper bound in microseconds
+     *
+     * @return The number of recorded latencies up to the bucket holding the bound
+     **/
+    public long countAtOrBelow(long micros) {
+        int last = bucketOf(Math.max(0, micros));
+        long seen = 0;
+        for (int i = 0; i <= last; i++)
+            seen += buckets[i].sum();
+        return seen;
+    }
+
+    /**
+     * Adds all latencies recorded by another histogram to this one.
+     **/
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i].add(other.buckets[i].sum());
+        count.add(other.count());
+        sum.add(other.sum());
+        max.accumulate(other.max());
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,118 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * This class streams a side request body from a file: the file content Base64 encoded as a JSON string.
+ *
+ * The file is memory mapped one window at a time and encoded on the fly into a small buffer,
+ * so a payload of hundreds of megabytes never has to fit on the heap.
+ *
+ * @author Adebowale Otulana
+ */
+public class MappedBase64Body extends InputStream {
+
+    /**
+     * A multiple of 3, so Base64 padding can only occur at the end of the file
+     **/
+    private static final long WINDOW_SIZE = 3L * 16 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 3 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final byte[] encoded = new byte[CHUNK_SIZE / 3 * 4];
+
+    private MappedByteBuffer window;
+    private long windowEnd;
+    private int encodedPosition;
+    private int encodedLimit;
+    private boolean openingQuoteSent;
+    private boolean closingQuoteSent;
+
+    public MappedBase64Body(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    /**
+     * @return The number of bytes the stream produces: the Base64 encoded file and two quotes
+     **/
+    public long length() {
+        return (size + 2) / 3 * 4 + 2;
+    }
+
+    public int read() throws IOException {
+        if (encodedPosition == encodedLimit && !fill())
+            return -1;
+        return encoded[encodedPosition++] & 0xFF;
+    }
+
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (encodedPosition == encodedLimit && !fill())
+            return -1;
+
+        int read = Math.min(length, encodedLimit - encodedPosition);
+        System.arraycopy(encoded, encodedPosition, buffer, offset, read);
+        encodedPosition += read;
+        return read;
+    }
+
+    public int available() {
+        return encodedLimit - encodedPosition;
+    }
+
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Encodes the next chunk of the file into the buffer.
+     *
+     * @return false at the end of the body
+     **/
+    private boolean fill() throws IOException {
+        encodedPosition = 0;
+        encodedLimit = 0;
+
+        if (!openingQuoteSent) {
+            openingQuoteSent = true;
+            encoded[encodedLimit++] = '"';
+            return true;
+        }
+
+        if (window == null || !window.hasRemaining()) {
+            if (windowEnd < size) {
+                long windowSize = Math.min(WINDOW_SIZE, size - windowEnd);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, windowSize);
+                windowEnd += windowSize;
+            }
+        }
+
+        if (window != null && window.hasRemaining()) {
+            int read = Math.min(CHUNK_SIZE, window.remaining());
+            window.get(chunk, 0, read);
+
+            byte[] source = read == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, read);
+            encodedLimit = Base64.getEncoder().encode(source, encoded);
+            return true;
+        }
+
+        if (!closingQuoteSent) {
+            closingQuoteSent = true;
+            encoded[encodedLimit++] = '"';
+            return true;
+        }
+        return false;
+    }
+}
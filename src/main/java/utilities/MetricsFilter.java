@@ -0,0 +1,85 @@
+package utilities;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+
+/**
+ * This class records every RestAssured request into {@link HarnessMetrics}:
+ * method, path template, status, latency and body bytes.
+ *
+ * @author Adebowale Otulana
+ */
+public class MetricsFilter implements Filter {
+
+    /**
+     * The filter context value the request body length is shared under, so later filters do not measure it again
+     **/
+    static final String REQUEST_LENGTH = "utilities.requestLength";
+
+    public Response filter(FilterableRequestSpecification requestSpec,
+                           FilterableResponseSpecification responseSpec,
+                           FilterContext context) {
+        String method = requestSpec.getMethod();
+        String endpoint = requestSpec.getUserDefinedPath();
+        Object body = requestSpec.getBody();
+        long bytesSent = requestLength(body);
+        context.setValue(REQUEST_LENGTH, bytesSent);
+        long start = System.nanoTime();
+
+        Response response;
+        try {
+            response = context.next(requestSpec, responseSpec);
+        } catch (RuntimeException e) {
+            HarnessMetrics.recordError(method, endpoint, (System.nanoTime() - start) / 1000, bytesSent);
+            throw e;
+        }
+
+        HarnessMetrics.recordRequest(method, endpoint, response.getStatusCode(),
+                (System.nanoTime() - start) / 1000, bytesSent, responseLength(response));
+        return response;
+    }
+
+    static long requestLength(Object body) {
+        if (body instanceof byte[])
+            return ((byte[]) body).length;
+        if (body instanceof String)
+            return utf8Length((String) body);
+        if (body instanceof MappedBase64Body)
+            return ((MappedBase64Body) body).length();
+        //Other streamed or absent bodies are not counted
+        return 0;
+    }
+
+    /**
+     * @return The length of the string encoded in UTF-8, without encoding it
+     **/
+    private static long utf8Length(String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return The body length as sent by the differ, before any decompression by RestAssured;
+     * -1 without a Content-Length, as reading a chunked body here would buffer a streamed one
+     **/
+    private static long responseLength(Response response) {
+        String contentLength = response.getHeader("Content-Length");
+        return contentLength != null ? Long.parseLong(contentLength) : -1;
+    }
+}
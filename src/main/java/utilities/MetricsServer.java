@@ -0,0 +1,109 @@
+package utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves {@link HarnessMetrics} on a local HTTP endpoint in the OpenMetrics text format,
+ * so Prometheus or a plain curl can follow a run while it is going on.
+ *
+ * The server is started when METRICS_PORT is configured (see {@link Environment}) and lives as long as the JVM.
+ * It binds to METRICS_ADDRESS, 127.0.0.1 by default. The metrics are at http://127.0.0.1:METRICS_PORT/metrics
+ * In a sharded run shard N serves its metrics on METRICS_PORT + N.
+ *
+ * @author Adebowale Otulana
+ */
+public final class MetricsServer {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static HttpServer server;
+
+    private MetricsServer() {
+    }
+
+    /**
+     * Starts the server, if METRICS_PORT is configured.
+     * Every RestAssured request is recorded by the {@link MetricsFilter} that {@link hook.TestBase} registers.
+     * Does nothing when it is not configured or the server is already running.
+     **/
+    public static synchronized void startIfConfigured() {
+        String port = Environment.get("METRICS_PORT");
+        if (port == null || port.trim().isEmpty() || server != null)
+            return;
+
+        //Shards serve their metrics on consecutive ports
+        int shardPort = Integer.parseInt(port.trim()) + (Shard.isSharded() ? Shard.INDEX : 0);
+        InetSocketAddress address = new InetSocketAddress(Environment.get("METRICS_ADDRESS", "127.0.0.1"), shardPort);
+        server = start(address);
+        HarnessLog.log("Harness metrics at http://" + address.getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    /**
+     * The dispatcher thread of the server inherits the daemon flag of the thread that starts it,
+     * so the server is started from a daemon thread and never keeps the JVM alive.
+     **/
+    private static HttpServer start(InetSocketAddress address) {
+        HttpServer[] started = new HttpServer[1];
+        IOException[] failure = new IOException[1];
+
+        Thread starter = new Thread(() -> {
+            try {
+                HttpServer httpServer = HttpServer.create(address, 0);
+                httpServer.createContext("/metrics", MetricsServer::scrape);
+                httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "harness-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+                httpServer.start();
+                started[0] = httpServer;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        }, "harness-metrics-start");
+        starter.setDaemon(true);
+        starter.start();
+
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure[0] != null)
+            throw new UncheckedIOException("Harness metrics could not be served on " + address, failure[0]);
+        return started[0];
+    }
+
+    private static void scrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = HarnessMetrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package utilities;
+
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class caches the JSON request bodies of side values: the value Base64 encoded and quoted,
+ * as bytes ready to be sent. The same values are sent for many IDs by the tests and the load modes,
+ * and encoding them again for every request is wasted CPU and garbage.
+ *
+ * Entries are looked up by the value itself (its hash, then its content), so equal values share one body.
+ * Values sent only once, e.g. the random sides of the load modes, bypass the cache through {@link #oneOffBody}:
+ * they would never be hit, only take a segment lock and push out bodies that are sent again.
+ * The cache is bounded by entries and by bytes, and evicts the least recently used bodies.
+ * It is split into segments with a lock each, so load threads rarely wait for each other.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * PAYLOAD_CACHE=true - false encodes every body again
+ * PAYLOAD_CACHE_ENTRIES=10000 - maximum cached bodies
+ * PAYLOAD_CACHE_MB=64 - maximum memory of the cached bodies and their values
+ *
+ * @author Adebowale Otulana
+ */
+public final class PayloadCache {
+
+    private static final int SEGMENTS = 16;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(Environment.get("PAYLOAD_CACHE", "true"));
+    private static final int MAX_ENTRIES = Integer.parseInt(Environment.get("PAYLOAD_CACHE_ENTRIES", "10000"));
+    private static final long MAX_BYTES = Long.parseLong(Environment.get("PAYLOAD_CACHE_MB", "64")) * 1024 * 1024;
+
+    private static final Segment[] segments = new Segment[SEGMENTS];
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder uncacheable = new LongAdder();
+    private static final LongAdder oneOff = new LongAdder();
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(Math.max(1, MAX_ENTRIES / SEGMENTS), MAX_BYTES / SEGMENTS);
+    }
+
+    private PayloadCache() {
+    }
+
+    /**
+     * @param value
+     *        Side value before Base64 encoding
+     *
+     * @return The JSON request body of the value, e.g. "Y29udGludW91cw==" with the quotes.
+     * The array is shared, it must not be modified.
+     **/
+    public static byte[] body(String value) {
+        if (!ENABLED)
+            return encode(value);
+
+        Segment segment = segments[(value.hashCode() ^ (value.hashCode() >>> 16)) & (SEGMENTS - 1)];
+        byte[] body = segment.get(value);
+        if (body != null) {
+            hits.increment();
+            return body;
+        }
+
+        misses.increment();
+        body = encode(value);
+        segment.put(value, body);
+        return body;
+    }
+
+    /**
+     * @param value
+     *        Side value before Base64 encoding, sent only once
+     *
+     * @return The JSON request body of the value, encoded without the cache
+     **/
+    public static byte[] oneOffBody(String value) {
+        oneOff.increment();
+        return encode(value);
+    }
+
+    public static long hits() {
+        return hits.sum();
+    }
+
+    public static long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Bodies encoded by {@link #oneOffBody}, without the cache
+     **/
+    public static long oneOffBodies() {
+        return oneOff.sum();
+    }
+
+    public static long evictions() {
+        return evictions.sum();
+    }
+
+    public static long entries() {
+        long entries = 0;
+        for (Segment segment : segments)
+            entries += segment.size();
+        return entries;
+    }
+
+    /**
+     * @return Estimated memory of the cached bodies and their values
+     **/
+    public static long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments)
+            bytes += segment.bytes();
+        return bytes;
+    }
+
+    /**
+     * @return A one line summary of hits, misses and memory, e.g. for the test report
+     **/
+    public static String summary() {
+        if (!ENABLED)
+            return "disabled";
+
+        long lookups = hits() + misses();
+        return String.format(Locale.ROOT,
+                "%d hits, %d misses (%.1f%% hit rate), %d entries, %.2f MB, %d evictions, %d too large to cache, %d one-off",
+                hits(), misses(), lookups == 0 ? 0 : 100.0 * hits() / lookups,
+                entries(), bytes() / 1e6, evictions(), uncacheable.sum(), oneOffBodies());
+    }
+
+    private static byte[] encode(String value) {
+        byte[] encoded = Base64.getEncoder().encode(value.getBytes());
+        byte[] body = new byte[encoded.length + 2];
+        body[0] = '"';
+        System.arraycopy(encoded, 0, body, 1, encoded.length);
+        body[body.length - 1] = '"';
+        return body;
+    }
+
+    /**
+     * @return Estimated memory of one entry: the body, the chars of the value and the map entry
+     **/
+    private static long weight(String value, byte[] body) {
+        return body.length + 2L * value.length() + 96;
+    }
+
+    /**
+     * One part of the cache, a map in access order under its own lock.
+     **/
+    private static final class Segment {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final LinkedHashMap<String, byte[]> bodies = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(String value) {
+            return bodies.get(value);
+        }
+
+        synchronized void put(String value, byte[] body) {
+            long weight = weight(value, body);
+
+            //A body that would push out a quarter of the segment is not worth caching
+            if (weight > maxBytes / 4) {
+                uncacheable.increment();
+                return;
+            }
+
+            byte[] previous = bodies.put(value, body);
+            if (previous != null)
+                bytes -= weight(value, previous);
+            bytes += weight;
+
+            //Evict the least recently used bodies
+            Iterator<Map.Entry<String, byte[]>> eldest = bodies.entrySet().iterator();
+            while ((bodies.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                Map.Entry<String, byte[]> entry = eldest.next();
+                bytes -= weight(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized int size() {
+            return bodies.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * This class reads the /proc files of a local process on Linux, e.g. of the differ given with DIFFER_PID:
+ * its CPU time and start time from /proc/[pid]/stat and single lines of /proc/[pid]/status.
+ *
+ * @author Adebowale Otulana
+ */
+public final class ProcFiles {
+
+    /**
+     * Clock ticks per second of /proc/[pid]/stat, USER_HZ is 100 on every mainstream Linux
+     **/
+    private static final double CLOCK_TICKS = 100;
+
+    //Fields of /proc/[pid]/stat as numbered in proc(5)
+    private static final int UTIME = 14;
+    private static final int STIME = 15;
+    private static final int STARTTIME = 22;
+
+    private ProcFiles() {
+    }
+
+    /**
+     * @return The /proc folder of the process, null if there is none, e.g. the process has exited or this is not Linux
+     **/
+    public static Path folder(String pid) {
+        Path folder = Paths.get("/proc", pid);
+        return Files.isDirectory(folder) ? folder : null;
+    }
+
+    /**
+     * @param folder
+     *        /proc folder of the process, see {@link #folder(String)}
+     *
+     * @return User and system CPU time of the process in seconds
+     **/
+    public static double cpuSeconds(Path folder) throws IOException {
+        String[] fields = stat(folder);
+        return (Long.parseLong(field(fields, UTIME)) + Long.parseLong(field(fields, STIME))) / CLOCK_TICKS;
+    }
+
+    /**
+     * @param folder
+     *        /proc folder of the process, see {@link #folder(String)}
+     *
+     * @return Seconds since the process was started
+     **/
+    public static double ageSeconds(Path folder) throws IOException {
+        long startTicks = Long.parseLong(field(stat(folder), STARTTIME));
+        String uptime = new String(Files.readAllBytes(Paths.get("/proc", "uptime")), StandardCharsets.US_ASCII);
+        return Double.parseDouble(uptime.split(" ")[0]) - startTicks / CLOCK_TICKS;
+    }
+
+    /**
+     * @param folder
+     *        /proc folder of the process, null if there is none
+     *
+     * @param field
+     *        Name of the line including its colon, e.g. VmRSS:
+     *
+     * @return The number of a line of /proc/[pid]/status, e.g. VmRSS in kB, -1 if it cannot be read
+     **/
+    public static long status(Path folder, String field) {
+        if (folder == null)
+            return -1;
+
+        try {
+            for (String line : Files.readAllLines(folder.resolve("status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith(field))
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+            }
+        } catch (IOException | RuntimeException e) {
+            //The process has exited
+        }
+        return -1;
+    }
+
+    /**
+     * @return The fields of /proc/[pid]/stat after the process name, starting with field 3 (state)
+     **/
+    private static String[] stat(Path folder) throws IOException {
+        String stat = new String(Files.readAllBytes(folder.resolve("stat")), StandardCharsets.US_ASCII);
+        //The process name may contain spaces and parentheses, the fields are counted after its last )
+        return stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+    }
+
+    private static String field(String[] fields, int field) {
+        return fields[field - 3];
+    }
+}
@@ -0,0 +1,478 @@
+package utilities;
+
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class samples the resources of the differ at a fixed interval during a suite or load run,
+ * next to the latency of the harness requests in the same window, to tell whether latency spikes
+ * coincide with garbage collection, CPU saturation or memory growth of the differ.
+ *
+ * When the differ runs on the same Linux machine and DIFFER_PID is set, its CPU time, resident memory
+ * and thread count are read from /proc. When DIFFER_JMX is set and reachable, its heap and garbage
+ * collections are read through JMX, and so are CPU time and threads if /proc is not available.
+ * Every window records the requests that finished in it through {@link MetricsFilter}
+ * (the raw sockets of load.PipelinedLoadClient are not recorded).
+ *
+ * The windows are written to test-output/&lt;run&gt;-resources.csv,
+ * and {@link ExtentReporterNG} charts them and lists the slowest windows in the test report.
+ *
+ * Configuration (see {@link Environment}):
+ * DIFFER_PID - process ID of a local differ, not set by default
+ * DIFFER_JMX - host:port of the JMX agent of the differ, not set by default
+ * DIFFER_JMX_TIMEOUT_MILLIS - time to wait for the JMX agent to connect, default 5000
+ * RESOURCE_SAMPLE_MILLIS - length of a window, default 1000
+ *
+ * @author Adebowale Otulana
+ */
+public class ResourceSampler implements ISuiteListener {
+
+    private static ScheduledExecutorService scheduler;
+    private static String name;
+    private static Path procFolder;
+    private static JMXConnector jmxConnector;
+    private static MBeanServerConnection jmx;
+    private static List<Sample> samples;
+    private static long startMillis;
+    private static long previousNanos;
+    private static double previousCpuSeconds;
+    private static long previousGcCount;
+    private static long previousGcMillis;
+
+    private static volatile Window window;
+    private static volatile List<Sample> lastRun = Collections.emptyList();
+    private static volatile String lastRunName;
+
+    public void onStart(ISuite suite) {
+        startIfConfigured("suite");
+    }
+
+    public void onFinish(ISuite suite) {
+        stop();
+    }
+
+    /**
+     * Starts sampling when DIFFER_PID or DIFFER_JMX is set.
+     * Does nothing when neither is set or a run is already being sampled.
+     *
+     * @param runName
+     *        Name of the run, used in the file name, e.g. suite or saturation
+     **/
+    public static synchronized void startIfConfigured(String runName) {
+        String pid = Environment.get("DIFFER_PID", "").trim();
+        String jmxAddress = Environment.get("DIFFER_JMX", "").trim();
+        if ((pid.isEmpty() && jmxAddress.isEmpty()) || scheduler != null)
+            return;
+
+        name = Shard.isSharded() ? runName + "-" + Shard.name() : runName;
+        procFolder = pid.isEmpty() ? null : ProcFiles.folder(pid);
+        if (!pid.isEmpty() && procFolder == null)
+            HarnessLog.log("Differ process " + pid + " not found in /proc, its CPU, memory and threads are read through JMX only");
+
+        if (!jmxAddress.isEmpty()) {
+            try {
+                jmxConnector = connect(jmxAddress, Long.parseLong(Environment.get("DIFFER_JMX_TIMEOUT_MILLIS", "5000")));
+                jmx = jmxConnector.getMBeanServerConnection();
+            } catch (IOException e) {
+                closeJmx();
+                HarnessLog.log("JMX of the differ not reachable at " + jmxAddress + ", garbage collections are not sampled: " + e);
+            }
+        }
+
+        if (procFolder == null && jmx == null) {
+            closeJmx();
+            return;
+        }
+
+        samples = new ArrayList<>();
+        startMillis = System.currentTimeMillis();
+        previousNanos = System.nanoTime();
+        previousCpuSeconds = cpuSeconds();
+        long[] gc = garbageCollections();
+        previousGcCount = gc[0];
+        previousGcMillis = gc[1];
+        window = new Window();
+
+        long interval = Long.parseLong(Environment.get("RESOURCE_SAMPLE_MILLIS", "1000"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "differ-resource-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(ResourceSampler::sample, interval, interval, TimeUnit.MILLISECONDS);
+
+        HarnessLog.log("Sampling the differ resources every " + interval + " ms"
+                + (procFolder != null ? " from " + procFolder : "") + (jmx != null ? " through JMX" : ""));
+    }
+
+    /**
+     * Records the latency of a harness request in the current window; called for every request by {@link HarnessMetrics}.
+     **/
+    static void record(long micros) {
+        while (true) {
+            Window current = window;
+            if (current == null)
+                return;
+
+            current.recorders.incrementAndGet();
+            try {
+                //A window swapped in the meantime may already have been read, record in the new one
+                if (current == window) {
+                    current.latency.record(micros);
+                    return;
+                }
+            } finally {
+                current.recorders.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops sampling, takes the last window and writes the windows to test-output/&lt;run&gt;-resources.csv.
+     * Does nothing when nothing is being sampled.
+     *
+     * @return The windows of the run
+     **/
+    public static synchronized List<Sample> stop() {
+        if (scheduler == null)
+            return lastRun;
+
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+        window = null;
+        closeJmx();
+
+        lastRun = Collections.unmodifiableList(samples);
+        lastRunName = name;
+        scheduler = null;
+
+        Path file = Paths.get("test-output", name + "-resources.csv");
+        try {
+            Files.createDirectories(file.getParent());
+            try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+                csv.println("timestamp,seconds,requests,p50_ms,p99_ms,max_ms,cpu_percent,rss_mb,threads,heap_used_mb,gc_count,gc_ms");
+                for (Sample sample : lastRun)
+                    csv.println(sample.csv());
+            }
+            HarnessLog.log("Differ resources written to " + file + ": " + correlation());
+        } catch (IOException e) {
+            HarnessLog.log("Differ resources not written: " + e);
+        }
+        return lastRun;
+    }
+
+    /**
+     * @return The windows of the last sampled run, empty if nothing was sampled
+     **/
+    public static List<Sample> samples() {
+        return lastRun;
+    }
+
+    /**
+     * @return The name of the last sampled run, e.g. suite
+     **/
+    public static String runName() {
+        return lastRunName;
+    }
+
+    /**
+     * @return A one line summary of how the p99 latency of the windows correlates with garbage collection,
+     * CPU and memory growth of the differ
+     **/
+    public static String correlation() {
+        List<Sample> windows = new ArrayList<>();
+        List<Double> growth = new ArrayList<>();
+        for (int i = 0; i < lastRun.size(); i++) {
+            Sample sample = lastRun.get(i);
+            if (sample.requests > 0) {
+                windows.add(sample);
+                //Growth since the previous sample, with or without requests; unknown for the first one
+                growth.add(i == 0 ? Double.NaN : sample.rssMegabytes - lastRun.get(i - 1).rssMegabytes);
+            }
+        }
+        if (windows.size() < 3)
+            return "too few windows with requests to correlate";
+
+        double[] p99 = new double[windows.size()];
+        double[] gc = new double[windows.size()];
+        double[] cpu = new double[windows.size()];
+        double[] rssGrowth = new double[windows.size()];
+        for (int i = 0; i < windows.size(); i++) {
+            Sample sample = windows.get(i);
+            p99[i] = sample.p99Millis;
+            gc[i] = sample.gcMillis < 0 ? Double.NaN : sample.gcMillis;
+            cpu[i] = sample.cpuPercent;
+            rssGrowth[i] = growth.get(i);
+        }
+
+        //Of the slowest tenth of the windows, how many had a garbage collection
+        List<Sample> slowest = slowest(Math.max(1, windows.size() / 10));
+        int withGc = 0;
+        for (Sample sample : slowest) {
+            if (sample.gcCount > 0)
+                withGc++;
+        }
+
+        return String.format(Locale.ROOT,
+                "p99 correlation with GC time %s, with CPU %s, with RSS growth %s; %d of the %d slowest windows had a GC",
+                pearson(p99, gc), pearson(p99, cpu), pearson(p99, rssGrowth), withGc, slowest.size());
+    }
+
+    /**
+     * @return The windows with the highest p99 latency, highest first
+     **/
+    public static List<Sample> slowest(int count) {
+        List<Sample> sorted = new ArrayList<>();
+        for (Sample sample : lastRun) {
+            if (sample.requests > 0)
+                sorted.add(sample);
+        }
+        sorted.sort((a, b) -> Double.compare(b.p99Millis, a.p99Millis));
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
+
+    /**
+     * Closes the current window: swaps in a new one, waits for the requests still recording in the old one and reads the differ
+     **/
+    private static void sample() {
+        Window closed = window;
+        window = new Window();
+        while (closed.recorders.get() > 0)
+            Thread.yield();
+        LatencyHistogram latency = closed.latency;
+
+        long nanos = System.nanoTime();
+        double seconds = (nanos - previousNanos) / 1e9;
+        double cpuSeconds = cpuSeconds();
+        long[] gc = garbageCollections();
+
+        Sample sample = new Sample();
+        sample.timestamp = System.currentTimeMillis();
+        sample.seconds = (sample.timestamp - startMillis) / 1000.0;
+        sample.requests = latency.count();
+        sample.p50Millis = latency.percentile(50) / 1000.0;
+        sample.p99Millis = latency.percentile(99) / 1000.0;
+        sample.maxMillis = latency.max() / 1000.0;
+        sample.cpuPercent = Double.isNaN(cpuSeconds) || seconds == 0 ? Double.NaN : (cpuSeconds - previousCpuSeconds) / seconds * 100;
+        sample.rssMegabytes = rssMegabytes();
+        sample.threads = threads();
+        sample.heapUsedMegabytes = heapUsedMegabytes();
+        sample.gcCount = gc[0] < 0 ? -1 : gc[0] - previousGcCount;
+        sample.gcMillis = gc[1] < 0 ? -1 : gc[1] - previousGcMillis;
+        samples.add(sample);
+
+        previousNanos = nanos;
+        previousCpuSeconds = cpuSeconds;
+        previousGcCount = gc[0];
+        previousGcMillis = gc[1];
+    }
+
+    /**
+     * @return User and system CPU time of the differ, NaN if it cannot be read
+     **/
+    private static double cpuSeconds() {
+        if (procFolder != null) {
+            try {
+                return ProcFiles.cpuSeconds(procFolder);
+            } catch (IOException | RuntimeException e) {
+                return Double.NaN;
+            }
+        }
+
+        try {
+            return ((Number) jmx.getAttribute(new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME),
+                    "ProcessCpuTime")).longValue() / 1e9;
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double rssMegabytes() {
+        long kilobytes = ProcFiles.status(procFolder, "VmRSS:");
+        return kilobytes < 0 ? Double.NaN : kilobytes / 1024.0;
+    }
+
+    private static long threads() {
+        long threads = ProcFiles.status(procFolder, "Threads:");
+        if (threads >= 0 || jmx == null)
+            return threads;
+
+        try {
+            return ((Number) jmx.getAttribute(new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME), "ThreadCount")).longValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static double heapUsedMegabytes() {
+        if (jmx == null)
+            return Double.NaN;
+
+        try {
+            CompositeData usage = (CompositeData) jmx.getAttribute(new ObjectName(ManagementFactory.MEMORY_MXBEAN_NAME), "HeapMemoryUsage");
+            return MemoryUsage.from(usage).getUsed() / (1024.0 * 1024.0);
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return Collections and collection time in milliseconds of every collector of the differ so far,
+     * -1 each if they cannot be read
+     **/
+    private static long[] garbageCollections() {
+        if (jmx == null)
+            return new long[] {-1, -1};
+
+        try {
+            long count = 0;
+            long millis = 0;
+            for (ObjectName collector : jmx.queryNames(new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*"), null)) {
+                count += ((Number) jmx.getAttribute(collector, "CollectionCount")).longValue();
+                millis += ((Number) jmx.getAttribute(collector, "CollectionTime")).longValue();
+            }
+            return new long[] {count, millis};
+        } catch (Exception e) {
+            return new long[] {-1, -1};
+        }
+    }
+
+    /**
+     * Connects to a JMX agent; JMXConnectorFactory.connect has no timeout of its own and hangs on an unresponsive agent
+     **/
+    private static JMXConnector connect(String address, long timeoutMillis) throws IOException {
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + address + "/jmxrmi");
+        CompletableFuture<JMXConnector> connector = new CompletableFuture<>();
+        Thread connecting = new Thread(() -> {
+            try {
+                connector.complete(JMXConnectorFactory.connect(url));
+            } catch (IOException | RuntimeException e) {
+                connector.completeExceptionally(e);
+            }
+        }, "differ-jmx-connect");
+        connecting.setDaemon(true);
+        connecting.start();
+
+        try {
+            return connector.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            //A connection made after all is not used, close it then
+            connector.thenAccept(ResourceSampler::close);
+            throw new IOException("no connection within " + timeoutMillis + " ms");
+        }
+    }
+
+    private static void close(JMXConnector connector) {
+        try {
+            connector.close();
+        } catch (IOException e) {
+            //The differ may have exited already
+        }
+    }
+
+    private static void closeJmx() {
+        if (jmxConnector != null)
+            close(jmxConnector);
+        jmxConnector = null;
+        jmx = null;
+    }
+
+    /**
+     * @return The Pearson correlation coefficient, "n/a" if either series is constant or unknown
+     **/
+    private static String pearson(double[] x, double[] y) {
+        int n = 0;
+        double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (Double.isNaN(x[i]) || Double.isNaN(y[i]))
+                continue;
+            n++;
+            sumX += x[i];
+            sumY += y[i];
+            sumXX += x[i] * x[i];
+            sumYY += y[i] * y[i];
+            sumXY += x[i] * y[i];
+        }
+
+        double covariance = n * sumXY - sumX * sumY;
+        double variance = (n * sumXX - sumX * sumX) * (n * sumYY - sumY * sumY);
+        return n < 3 || variance <= 0 ? "n/a" : String.format(Locale.ROOT, "%+.2f", covariance / Math.sqrt(variance));
+    }
+
+    /**
+     * The latency of the harness requests of the current window and the number of threads recording in it
+     **/
+    private static final class Window {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicInteger recorders = new AtomicInteger();
+    }
+
+    /**
+     * One window: the harness requests that finished in it and the differ at its end.
+     * Unknown values are NaN, or -1 for counts.
+     **/
+    public static final class Sample {
+        public long timestamp;
+        public double seconds;
+        public long requests;
+        public double p50Millis;
+        public double p99Millis;
+        public double maxMillis;
+        public double cpuPercent;
+        public double rssMegabytes;
+        public long threads;
+        public double heapUsedMegabytes;
+        public long gcCount;
+        public long gcMillis;
+
+        String csv() {
+            return String.format(Locale.ROOT, "%d,%.1f,%d,%.2f,%.2f,%.2f,%s,%s,%s,%s,%s,%s",
+                    timestamp, seconds, requests, p50Millis, p99Millis, maxMillis,
+                    value(cpuPercent), value(rssMegabytes), value(threads),
+                    value(heapUsedMegabytes), value(gcCount), value(gcMillis));
+        }
+
+        private static String value(double value) {
+            return Double.isNaN(value) ? "" : String.format(Locale.ROOT, "%.1f", value);
+        }
+
+        private static String value(long value) {
+            return value < 0 ? "" : String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package utilities;
+
+import hook.TestBase;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * This class waits for the differ to be ready before the suite starts.
+ *
+ * An open port is not enough, so after the port accepts connections
+ * it keeps trying a full left, right and diff round trip until every request of it succeeds.
+ * Both waits back off exponentially.
+ *
+ * Run on its own right after the differ is launched, e.g. in CI, it also records how long the differ
+ * took to get there (a cold-start benchmark) and times the first N round trips of the ready differ:
+ * mvn compile exec:java -Dexec.mainClass=utilities.ServiceReadiness
+ * The measurements are written to test-output/cold-start.properties, which the test report shows.
+ * As a suite listener it only waits, as the differ is usually warm by then.
+ *
+ * Configuration (see {@link Environment}):
+ * READINESS_TIMEOUT_SECONDS - how long to wait for the differ, default 60
+ * READINESS_SAMPLES - how many round trips to time once the differ is ready, default 20
+ * DIFFER_LAUNCHED_AT - when the differ was launched, in epoch milliseconds, not set by default
+ * DIFFER_PID - process ID of a local differ, whose start time is read from /proc if DIFFER_LAUNCHED_AT is not set
+ *
+ * The times to ready are measured from the differ launch; without either setting, from the start of the probe.
+ *
+ * @author Adebowale Otulana
+ */
+public class ServiceReadiness implements ISuiteListener {
+
+    public static final Path RESULTS_FILE = Paths.get("test-output", "cold-start.properties");
+
+    private static final long FIRST_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    /**
+     * The round trips use a reserved fixed ID, so they never touch the data of a test
+     **/
+    private static final long PROBE_ID = Shard.fixedID(Shard.RESERVED_IDS - 1);
+    private static final byte[] PROBE_BODY = TestUtililities.jsonBody("readiness");
+
+    private static final Map<String, String> results = new LinkedHashMap<>();
+
+    private static boolean ready;
+
+    public static void main(String[] args) throws Exception {
+        HarnessLog.toConsole();
+        measureColdStart();
+    }
+
+    public void onStart(ISuite suite) {
+        try {
+            waitUntilReady();
+        } catch (Exception e) {
+            throw new IllegalStateException("Differ is not ready: " + e.getMessage(), e);
+        }
+    }
+
+    public void onFinish(ISuite suite) {
+    }
+
+    /**
+     * @return The cold-start measurements of this JVM, else the ones last written to the results file;
+     * empty if there are none
+     **/
+    public static synchronized Map<String, String> results() {
+        if (results.isEmpty() && Files.exists(RESULTS_FILE)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(RESULTS_FILE)) {
+                properties.load(in);
+            } catch (IOException e) {
+                HarnessLog.log("Cold-start measurements not read: " + e);
+            }
+            for (String key : new TreeSet<>(properties.stringPropertyNames()))
+                results.put(key, properties.getProperty(key));
+        }
+        return results;
+    }
+
+    /**
+     * Blocks until a diff round trip succeeds. Only the first call in a JVM probes the differ.
+     **/
+    public static synchronized void waitUntilReady() throws IOException, InterruptedException {
+        if (ready)
+            return;
+
+        URI host = URI.create(Environment.get("HOST"));
+        long deadline = deadline();
+        waitForPort(host, deadline);
+        waitForRoundTrip(host, deadline);
+        ready = true;
+    }
+
+    /**
+     * Blocks until a diff round trip succeeds, records how long the differ took from its launch
+     * and times the first round trips after that. The measurements are saved to the results file.
+     **/
+    public static synchronized void measureColdStart() throws IOException, InterruptedException {
+        URI host = URI.create(Environment.get("HOST"));
+        long deadline = deadline();
+        int samples = Integer.parseInt(Environment.get("READINESS_SAMPLES", "20"));
+
+        results.clear();
+        results.put("Measured at", Instant.now().toString());
+
+        Long launch = launchNanos();
+        long start = launch != null ? launch : System.nanoTime();
+        String since = launch != null ? "since differ launch" : "since probe start";
+
+        int attempts = waitForPort(host, deadline);
+        results.put("Time to port open " + since + " (ms)", millis(System.nanoTime() - start));
+        results.put("Port attempts", String.valueOf(attempts));
+
+        attempts = waitForRoundTrip(host, deadline);
+        ready = true;
+        results.put("Time to first successful round trip " + since + " (ms)", millis(System.nanoTime() - start));
+        results.put("Round trip attempts", String.valueOf(attempts));
+
+        //Time the first round trips of the ready differ
+        long[] latencies = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            long requestStart = System.nanoTime();
+            if (!roundTrip(host))
+                throw new IllegalStateException("Round trip " + (i + 1) + " failed after the differ was ready");
+            latencies[i] = System.nanoTime() - requestStart;
+        }
+
+        if (samples > 0) {
+            results.put("First round trip after ready (ms)", millis(latencies[0]));
+            Arrays.sort(latencies);
+            results.put("Median of first " + samples + " round trips (ms)", millis(latencies[samples / 2]));
+            results.put("Max of first " + samples + " round trips (ms)", millis(latencies[samples - 1]));
+        }
+
+        HarnessLog.log("Differ ready: " + results);
+        save();
+    }
+
+    private static long deadline() {
+        return System.nanoTime() + Long.parseLong(Environment.get("READINESS_TIMEOUT_SECONDS", "60")) * 1_000_000_000L;
+    }
+
+    /**
+     * @return The number of connection attempts until the port accepted one
+     **/
+    private static int waitForPort(URI host, long deadline) throws InterruptedException {
+        int attempts = 1;
+        long backoff = FIRST_BACKOFF_MILLIS;
+        while (!isPortOpen(host)) {
+            backoff = pause(backoff, deadline, "port " + port(host) + " to open");
+            attempts++;
+        }
+        return attempts;
+    }
+
+    /**
+     * @return The number of round trips until one succeeded
+     **/
+    private static int waitForRoundTrip(URI host, long deadline) throws InterruptedException {
+        int attempts = 1;
+        long backoff = FIRST_BACKOFF_MILLIS;
+        while (!roundTrip(host)) {
+            backoff = pause(backoff, deadline, "a successful diff round trip");
+            attempts++;
+        }
+        return attempts;
+    }
+
+    /**
+     * @return System.nanoTime() at the launch of the differ, null if it is not known
+     **/
+    private static Long launchNanos() {
+        String launchedAt = Environment.get("DIFFER_LAUNCHED_AT", "").trim();
+        if (!launchedAt.isEmpty())
+            return System.nanoTime() - (System.currentTimeMillis() - Long.parseLong(launchedAt)) * 1_000_000L;
+
+        String pid = Environment.get("DIFFER_PID", "").trim();
+        if (pid.isEmpty())
+            return null;
+
+        Path folder = ProcFiles.folder(pid);
+        if (folder == null) {
+            HarnessLog.log("Differ process " + pid + " not found in /proc, measuring from the start of the probe");
+            return null;
+        }
+
+        try {
+            double ageSeconds = ProcFiles.ageSeconds(folder);
+            return System.nanoTime() - (long) (ageSeconds * 1e9);
+        } catch (IOException | RuntimeException e) {
+            HarnessLog.log("Launch of differ process " + pid + " not read from /proc, measuring from the start of the probe: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The port of the host, else the default port of its scheme
+     **/
+    private static int port(URI host) {
+        if (host.getPort() != -1)
+            return host.getPort();
+        return "https".equalsIgnoreCase(host.getScheme()) ? 443 : 80;
+    }
+
+    private static boolean isPortOpen(URI host) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host.getHost(), port(host)), 1000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets both sides of the probe ID and diffs them, expecting every request to succeed.
+     **/
+    private static boolean roundTrip(URI host) {
+        try {
+            return send(host, "POST", "/" + PROBE_ID + "/left", PROBE_BODY) == 200
+                    && send(host, "POST", "/" + PROBE_ID + "/right", PROBE_BODY) == 200
+                    && send(host, "GET", "/" + PROBE_ID, null) == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int send(URI host, String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(host + TestBase.BASE_PATH + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(1000);
+        connection.setReadTimeout(5000);
+        connection.setRequestProperty("Content-Type", "application/json");
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int statusCode = connection.getResponseCode();
+
+        //Read the body, so the connection can be reused
+        InputStream in = statusCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try (InputStream response = in) {
+                byte[] buffer = new byte[1024];
+                while (response.read(buffer) >= 0) {
+                    //Discard
+                }
+            }
+        }
+        return statusCode;
+    }
+
+    private static long pause(long backoff, long deadline, String waitingFor) throws InterruptedException {
+        if (System.nanoTime() + backoff * 1_000_000L > deadline)
+            throw new IllegalStateException("Timed out waiting for " + waitingFor);
+
+        Thread.sleep(backoff);
+        return Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / 1_000_000);
+    }
+
+    private static void save() throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(results);
+
+        Files.createDirectories(RESULTS_FILE.getParent());
+        try (OutputStream out = Files.newOutputStream(RESULTS_FILE)) {
+            properties.store(out, "Differ cold-start benchmark");
+        }
+    }
+}
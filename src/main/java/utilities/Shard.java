@@ -0,0 +1,84 @@
+package utilities;
+
+import java.util.Random;
+
+/**
+ * This class describes the shard the current JVM runs as.
+ * When the suite is split across forked JVMs by {@link ShardedSuiteRunner},
+ * every fork is given its own index and a disjoint range of side IDs,
+ * so that IDs used by one shard can never collide with IDs used by another.
+ *
+ * The shard is configured with SHARD_INDEX and SHARD_COUNT (see {@link Environment}),
+ * with 0 <= SHARD_INDEX < SHARD_COUNT. Without them the JVM is the only shard and owns every ID.
+ *
+ * @author Adebowale Otulana
+ */
+public final class Shard {
+
+    public static final String INDEX_KEY = "SHARD_INDEX";
+    public static final String COUNT_KEY = "SHARD_COUNT";
+
+    /**
+     * IDs at the bottom of each range are reserved for the fixed IDs used by the tests (999, 10, 21, ...).
+     * Generated IDs are always drawn above them.
+     */
+    public static final long RESERVED_IDS = 1_000_000L;
+
+    public static final int COUNT = Integer.parseInt(Environment.get(COUNT_KEY, "1"));
+    public static final int INDEX = index(COUNT);
+
+    private static final long ID_RANGE = Long.MAX_VALUE / COUNT;
+    private static final Random RANDOM = new Random();
+
+    private Shard() {
+    }
+
+    /**
+     * Reads the shard index, failing on a shard configuration that would give IDs or tests to no shard or to two.
+     **/
+    private static int index(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException(COUNT_KEY + " must be at least 1: " + count);
+
+        int index = Integer.parseInt(Environment.get(INDEX_KEY, "0"));
+        if (index < 0 || index >= count)
+            throw new IllegalArgumentException(INDEX_KEY + " must be between 0 and " + (count - 1) + ": " + index);
+        return index;
+    }
+
+    public static boolean isSharded() {
+        return COUNT > 1;
+    }
+
+    /**
+     * Maps a fixed test ID into the ID range of this shard.
+     *
+     * @param id
+     *        Fixed ID used by a test, must be below {@link #RESERVED_IDS}
+     *
+     * @return The ID within this shard's range
+     **/
+    public static long fixedID(long id) {
+        if (id < 0 || id >= RESERVED_IDS)
+            throw new IllegalArgumentException("Fixed IDs must be between 0 and " + (RESERVED_IDS - 1) + ": " + id);
+
+        return INDEX * ID_RANGE + id;
+    }
+
+    /**
+     * Generates a random positive ID within this shard's range, above the reserved fixed IDs.
+     *
+     * @return A random ID owned by this shard
+     **/
+    public static long randomID() {
+        long span = ID_RANGE - RESERVED_IDS;
+        return INDEX * ID_RANGE + RESERVED_IDS + (RANDOM.nextLong() & Long.MAX_VALUE) % span;
+    }
+
+    /**
+     * @return The name suffix used for files written by this shard, e.g. "shard-2"
+     **/
+    public static String name() {
+        return "shard-" + INDEX;
+    }
+}
@@ -0,0 +1,49 @@
+package utilities;
+
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the IMethodInterceptor interface
+ * to keep only the test methods that belong to the current shard.
+ *
+ * Every shard sees the same list of methods, so sorting them by name
+ * and dealing them out round-robin gives each method to exactly one shard.
+ *
+ * @author Adebowale Otulana
+ */
+public class ShardMethodInterceptor implements IMethodInterceptor {
+
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        if (!Shard.isSharded())
+            return methods;
+
+        List<IMethodInstance> sorted = new ArrayList<>(methods);
+        sorted.sort(Comparator.comparing(ShardMethodInterceptor::qualifiedName));
+
+        Set<IMethodInstance> owned = new HashSet<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i % Shard.COUNT == Shard.INDEX)
+                owned.add(sorted.get(i));
+        }
+
+        //Keep the declaration order of the methods this shard runs
+        List<IMethodInstance> shardMethods = new ArrayList<>();
+        for (IMethodInstance method : methods) {
+            if (owned.contains(method))
+                shardMethods.add(method);
+        }
+        return shardMethods;
+    }
+
+    private static String qualifiedName(IMethodInstance method) {
+        return method.getMethod().getRealClass().getName() + "." + method.getMethod().getMethodName();
+    }
+}
@@ -0,0 +1,147 @@
+package utilities;
+
+import com.aventstack.extentreports.ExtentReports;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the TestNG suite as several shards, each in its own forked JVM.
+ *
+ * Every fork is started with the SHARD_INDEX and SHARD_COUNT system properties, so that
+ * {@link ShardMethodInterceptor} gives it a disjoint subset of the test methods and
+ * {@link Shard} gives it a disjoint range of side IDs. Once all forks have finished,
+ * their JUnit results are collected into the surefire reports folder and their
+ * Extent JSON archives are merged into the usual HTML report.
+ *
+ * Usage: ShardedSuiteRunner [shardCount] [suiteXmlFile]
+ *
+ * @author Adebowale Otulana
+ */
+public class ShardedSuiteRunner {
+
+    private static final String DEFAULT_SUITE = "differ-regression-assignment-suite-runner.xml";
+    private static final String RESULTS_FOLDER = "target/surefire-reports";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HarnessLog.toConsole();
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String suite = args.length > 1 ? args[1] : DEFAULT_SUITE;
+
+        if (shardCount < 1)
+            throw new IllegalArgumentException("The shard count must be at least 1: " + shardCount);
+
+        Files.createDirectories(Paths.get(ExtentReporterNG.SHARD_ARCHIVE_FOLDER));
+        clearShardArchives();
+
+        //Start every shard before waiting on any of them
+        List<Process> shards = new ArrayList<>();
+        for (int index = 0; index < shardCount; index++)
+            shards.add(startShard(index, shardCount, suite));
+
+        int failedShards = 0;
+        for (int index = 0; index < shardCount; index++) {
+            int exitCode = shards.get(index).waitFor();
+            HarnessLog.log("Shard " + index + " of " + shardCount + " finished with exit code " + exitCode);
+
+            if (exitCode != 0)
+                failedShards++;
+        }
+
+        collectResults(shardCount);
+        mergeReports();
+
+        if (failedShards > 0) {
+            HarnessLog.log(failedShards + " of " + shardCount + " shards had test failures");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Forks a JVM with the same classpath and system properties as this one to run one shard.
+     * The output of each shard is written to its own log file, so it does not interleave.
+     **/
+    private static Process startShard(int index, int shardCount, String suite) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-D") || argument.startsWith("-X"))
+                command.add(argument);
+        }
+
+        command.add("-D" + Shard.INDEX_KEY + "=" + index);
+        command.add("-D" + Shard.COUNT_KEY + "=" + shardCount);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("org.testng.TestNG");
+        command.add("-d");
+        command.add(shardResultsFolder(index).toString());
+        command.add(suite);
+
+        Files.createDirectories(shardResultsFolder(index));
+        File log = shardResultsFolder(index).resolve("output.txt").toFile();
+
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+    }
+
+    private static Path shardResultsFolder(int index) {
+        return Paths.get(RESULTS_FOLDER, "shard-" + index);
+    }
+
+    private static void clearShardArchives() throws IOException {
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(
+                Paths.get(ExtentReporterNG.SHARD_ARCHIVE_FOLDER), "shard-*.json")) {
+            for (Path archive : archives)
+                Files.delete(archive);
+        }
+    }
+
+    /**
+     * Copies the JUnit XML results of each shard into one folder,
+     * suffixed with the shard name so that files from different shards do not overwrite each other.
+     **/
+    private static void collectResults(int shardCount) throws IOException {
+        Path merged = Paths.get(RESULTS_FOLDER, "Differ Regression Test Suite");
+        Files.createDirectories(merged);
+
+        for (int index = 0; index < shardCount; index++) {
+            Path shardSuiteFolder = shardResultsFolder(index).resolve("Differ Regression Test Suite");
+            if (!Files.isDirectory(shardSuiteFolder))
+                continue;
+
+            try (DirectoryStream<Path> results = Files.newDirectoryStream(shardSuiteFolder, "*.xml")) {
+                for (Path result : results) {
+                    String name = result.getFileName().toString().replace(".xml", "-shard-" + index + ".xml");
+                    Files.copy(result, merged.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the Extent JSON archive of each shard into the HTML test report.
+     **/
+    private static void mergeReports() throws IOException {
+        ExtentReports extent = new ExtentReports();
+        extent.attachReporter(ExtentReporterNG.htmlReporter());
+
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(
+                Paths.get(ExtentReporterNG.SHARD_ARCHIVE_FOLDER), "shard-*.json")) {
+            for (Path archive : archives)
+                extent.createDomainFromJsonArchive(archive.toFile());
+        }
+        extent.flush();
+    }
+}
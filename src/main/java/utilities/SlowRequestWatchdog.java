@@ -0,0 +1,339 @@
+package utilities;
+
+import org.testng.ITestResult;
+
+import java.io.IOException;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class watches every request in flight through {@link WatchdogFilter} and captures diagnostics
+ * for the ones that take longer than SLOW_REQUEST_MILLIS, while they are still hanging:
+ * the request (method, URI, ID, side, payload size), a thread dump of the harness with the waiting thread first
+ * and, when DIFFER_PID is set, a thread dump of the differ through jcmd.
+ *
+ * Each capture is written to test-output/slow-requests, rewritten with the time the request took once it finishes,
+ * and attached by {@link ExtentReporterNG} to the node of the test that sent the request. Tests that send requests
+ * from threads of their own set their test result on those threads with Reporter.setCurrentTestResult.
+ * Requests of load mode threads, which belong to no test, get a node of their own.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * SLOW_REQUEST_MILLIS=10000 - time in flight after which a request is captured, 0 to switch the watchdog off
+ * SLOW_REQUEST_MAX_CAPTURES=20 - captures per run, so a differ that hangs under load is not dumped for every request
+ * DIFFER_PID - process ID of a local differ JVM to dump as well, not set by default
+ *
+ * @author Adebowale Otulana
+ */
+public final class SlowRequestWatchdog {
+
+    public static final Path OUTPUT_FOLDER = Paths.get("test-output", "slow-requests");
+
+    private static final long THRESHOLD_MILLIS = Long.parseLong(Environment.get("SLOW_REQUEST_MILLIS", "10000"));
+    private static final int MAX_CAPTURES = Integer.parseInt(Environment.get("SLOW_REQUEST_MAX_CAPTURES", "20"));
+
+    private static final Map<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final AtomicInteger captureCount = new AtomicInteger();
+    private static final List<Capture> captures = Collections.synchronizedList(new ArrayList<>());
+    private static final Map<ITestResult, List<Capture>> capturesByTest = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private static Thread watchdog;
+
+    private SlowRequestWatchdog() {
+    }
+
+    public static boolean isEnabled() {
+        return THRESHOLD_MILLIS > 0;
+    }
+
+    /**
+     * Starts the watchdog thread, once per JVM, if it is enabled
+     **/
+    public static synchronized void startIfEnabled() {
+        if (!isEnabled() || watchdog != null)
+            return;
+
+        //Captures of an earlier run would be mistaken for captures of this one
+        try (DirectoryStream<Path> earlier = Files.newDirectoryStream(OUTPUT_FOLDER, filePrefix() + "-*.txt")) {
+            for (Path file : earlier)
+                Files.delete(file);
+        } catch (NoSuchFileException e) {
+            //No earlier captures
+        } catch (IOException e) {
+            HarnessLog.log("Earlier slow request captures not removed: " + e);
+        }
+
+        watchdog = new Thread(SlowRequestWatchdog::watch, "slow-request-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Registers a request that is about to be sent, on the thread that sends it
+     *
+     * @return The key to pass to {@link #finished}
+     **/
+    static long started(String method, String uri, String id, String side, long payloadBytes, ITestResult test) {
+        long key = sequence.incrementAndGet();
+        inFlight.put(key, new InFlight(Thread.currentThread(), method, uri, id, side, payloadBytes, test));
+        return key;
+    }
+
+    /**
+     * Unregisters a request; a captured one records how long it took in the end and its file is rewritten with it
+     **/
+    static void finished(long key) {
+        InFlight request = inFlight.remove(key);
+        if (request == null)
+            return;
+
+        Capture capture;
+        synchronized (request) {
+            request.finished = true;
+            capture = request.capture;
+        }
+        if (capture == null)
+            return;
+
+        //A capture still being taken is written with the finish time in the first place
+        synchronized (capture) {
+            capture.finishedAfterMillis = request.elapsedMillis();
+            if (capture.file != null)
+                write(capture, capture.file);
+        }
+    }
+
+    /**
+     * @return The captures of the requests sent by a test, empty if none was slow
+     **/
+    public static List<Capture> captures(ITestResult test) {
+        List<Capture> forTest = capturesByTest.get(test);
+        return forTest == null ? Collections.emptyList() : new ArrayList<>(forTest);
+    }
+
+    /**
+     * @return The captures of requests that were sent outside of any test, e.g. by a load mode
+     **/
+    public static List<Capture> unattributedCaptures() {
+        List<Capture> unattributed = new ArrayList<>();
+        synchronized (captures) {
+            for (Capture capture : captures) {
+                if (capture.test == null)
+                    unattributed.add(capture);
+            }
+        }
+        return unattributed;
+    }
+
+    private static void watch() {
+        long interval = Math.max(50, Math.min(1000, THRESHOLD_MILLIS / 4));
+
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (InFlight request : inFlight.values()) {
+                if (request.capture == null && request.elapsedMillis() >= THRESHOLD_MILLIS) {
+                    if (captureCount.get() >= MAX_CAPTURES)
+                        return;
+                    if (capture(request))
+                        captureCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the request finished before it could be captured
+     **/
+    private static boolean capture(InFlight request) {
+        Capture capture = new Capture(request);
+        synchronized (request) {
+            //The requests in flight are iterated while they change, a finished one may still come up
+            if (request.finished)
+                return false;
+            request.capture = capture;
+        }
+
+        capture.harnessThreadDump = threadDump(request.thread);
+        String differPid = Environment.get("DIFFER_PID", "").trim();
+        if (!differPid.isEmpty())
+            capture.differThreadDump = FlightRecording.jcmdOutput(differPid, "Thread.print", "-l");
+
+        captures.add(capture);
+        if (request.test != null)
+            capturesByTest.computeIfAbsent(request.test, test -> Collections.synchronizedList(new ArrayList<>())).add(capture);
+
+        Path file = OUTPUT_FOLDER.resolve(String.format(Locale.ROOT, "%s-%d.txt", filePrefix(), captures.size()));
+        synchronized (capture) {
+            if (write(capture, file))
+                capture.file = file;
+        }
+        HarnessLog.log("Slow request: " + capture.describe() + (capture.file != null ? ", diagnostics in " + capture.file : ""));
+        return true;
+    }
+
+    /**
+     * @return true if the capture was written to the file
+     **/
+    private static boolean write(Capture capture, Path file) {
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, capture.text().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            HarnessLog.log("Slow request capture not written: " + e);
+            return false;
+        }
+    }
+
+    private static String filePrefix() {
+        return Shard.isSharded() ? Shard.name() : "slow-request";
+    }
+
+    /**
+     * @return Every thread of the harness with its full stack, locks included; the waiting thread first.
+     * ThreadInfo.toString() would cut the stacks at eight frames.
+     **/
+    private static String threadDump(Thread waiting) {
+        ThreadInfo[] threads = ManagementFactory.getThreadMXBean().dumpAllThreads(true, true);
+        StringBuilder dump = new StringBuilder();
+
+        for (ThreadInfo thread : threads) {
+            if (thread.getThreadId() == waiting.getId())
+                append(dump, thread);
+        }
+        for (ThreadInfo thread : threads) {
+            if (thread.getThreadId() != waiting.getId())
+                append(dump, thread);
+        }
+        return dump.toString();
+    }
+
+    private static void append(StringBuilder dump, ThreadInfo thread) {
+        dump.append('"').append(thread.getThreadName()).append("\" id=").append(thread.getThreadId())
+                .append(' ').append(thread.getThreadState());
+        if (thread.getLockName() != null)
+            dump.append(" on ").append(thread.getLockName());
+        if (thread.getLockOwnerName() != null)
+            dump.append(" owned by \"").append(thread.getLockOwnerName()).append('"');
+        dump.append('\n');
+
+        StackTraceElement[] stack = thread.getStackTrace();
+        for (int i = 0; i < stack.length; i++) {
+            dump.append("\tat ").append(stack[i]).append('\n');
+            for (MonitorInfo monitor : thread.getLockedMonitors()) {
+                if (monitor.getLockedStackDepth() == i)
+                    dump.append("\t- locked ").append(monitor).append('\n');
+            }
+        }
+        for (LockInfo lock : thread.getLockedSynchronizers())
+            dump.append("\t- locked ").append(lock).append('\n');
+        dump.append('\n');
+    }
+
+    /**
+     * A request that has been sent and not answered yet
+     **/
+    private static final class InFlight {
+        final Thread thread;
+        final String method;
+        final String uri;
+        final String id;
+        final String side;
+        final long payloadBytes;
+        final ITestResult test;
+        final long startNanos = System.nanoTime();
+        volatile Capture capture;
+        //Set and read while holding the request, so it is either captured or finished first
+        boolean finished;
+
+        InFlight(Thread thread, String method, String uri, String id, String side, long payloadBytes, ITestResult test) {
+            this.thread = thread;
+            this.method = method;
+            this.uri = uri;
+            this.id = id;
+            this.side = side;
+            this.payloadBytes = payloadBytes;
+            this.test = test;
+        }
+
+        long elapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        }
+    }
+
+    /**
+     * The diagnostics of one slow request
+     **/
+    public static final class Capture {
+        private final String request;
+        private final long capturedAfterMillis;
+        private final String threadName;
+        private final ITestResult test;
+        private volatile long finishedAfterMillis = -1;
+        private String harnessThreadDump;
+        private String differThreadDump;
+        private volatile Path file;
+
+        Capture(InFlight request) {
+            this.request = String.format(Locale.ROOT, "%s %s (ID %s, side %s, %d payload bytes)", request.method, request.uri,
+                    request.id == null ? "-" : request.id, request.side == null ? "-" : request.side, request.payloadBytes);
+            this.capturedAfterMillis = request.elapsedMillis();
+            this.threadName = request.thread.getName();
+            this.test = request.test;
+        }
+
+        /**
+         * @return e.g. GET http://localhost:8081/diffassign/v1/diff/7 (ID 7, side -, 0 payload bytes)
+         * in flight for 10012 ms on thread main, finished after 31050 ms
+         **/
+        public String describe() {
+            return String.format(Locale.ROOT, "%s in flight for %d ms on thread %s, %s", request, capturedAfterMillis, threadName,
+                    finishedAfterMillis < 0 ? "not finished when captured" : "finished after " + finishedAfterMillis + " ms");
+        }
+
+        public String getHarnessThreadDump() {
+            return harnessThreadDump;
+        }
+
+        /**
+         * @return The thread dump of the differ, null if DIFFER_PID is not set or jcmd failed
+         **/
+        public String getDifferThreadDump() {
+            return differThreadDump;
+        }
+
+        /**
+         * @return Where the capture was written, null if it could not be written
+         **/
+        public Path getFile() {
+            return file;
+        }
+
+        private String text() {
+            return describe() + "\n\nHarness threads\n\n" + harnessThreadDump
+                    + (differThreadDump != null ? "\nDiffer threads\n\n" + differThreadDump + "\n" : "");
+        }
+    }
+}
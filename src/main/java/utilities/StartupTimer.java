@@ -0,0 +1,72 @@
+package utilities;
+
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestResult;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class measures how long the JVM takes to get to the tests.
+ *
+ * It records the JVM uptime when the suite starts and when the first test method starts,
+ * together with the number of loaded classes and whether a class data sharing archive is used.
+ * {@link ExtentReporterNG} adds the measurements to the system info of the test report.
+ *
+ * @author Adebowale Otulana
+ */
+public class StartupTimer implements ISuiteListener, IInvokedMethodListener {
+
+    private static volatile long suiteStartMillis = -1;
+    private static volatile long firstTestStartMillis = -1;
+    private static volatile long classesLoadedAtFirstTest = -1;
+
+    public void onStart(ISuite suite) {
+        if (suiteStartMillis < 0)
+            suiteStartMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    public void onFinish(ISuite suite) {
+        HarnessLog.log("Startup: " + measurements());
+    }
+
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (firstTestStartMillis < 0 && method.isTestMethod()) {
+            firstTestStartMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            classesLoadedAtFirstTest = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        }
+    }
+
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+    }
+
+    /**
+     * @return The startup measurements of this JVM, in the order they should be reported
+     **/
+    public static Map<String, String> measurements() {
+        Map<String, String> measurements = new LinkedHashMap<>();
+        measurements.put("JVM start to suite start (ms)", String.valueOf(suiteStartMillis));
+        measurements.put("JVM start to first test (ms)", String.valueOf(firstTestStartMillis));
+        measurements.put("Classes loaded before first test", String.valueOf(classesLoadedAtFirstTest));
+        measurements.put("Class data sharing archive", sharedArchive());
+        return measurements;
+    }
+
+    private static String sharedArchive() {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+
+        for (String argument : runtime.getInputArguments()) {
+            if (argument.startsWith("-XX:SharedArchiveFile="))
+                return argument.substring("-XX:SharedArchiveFile=".length());
+
+            if (argument.startsWith("-XX:ArchiveClassesAtExit="))
+                return "dumping to " + argument.substring("-XX:ArchiveClassesAtExit=".length());
+        }
+        return "JDK default";
+    }
+}
@@ -0,0 +1,136 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps the local history of every test method:
+ * how long it usually takes and how often it fails.
+ *
+ * The history is a property file in the test output folder.
+ * Durations and failure rates are exponentially weighted, so recent runs count the most.
+ * Updates are merged into the file under a file lock, so shards running in parallel can share it.
+ *
+ * @author Adebowale Otulana
+ */
+public final class TestHistory {
+
+    public static final Path HISTORY_FILE = Paths.get("test-output", "history", "test-history.properties");
+
+    /**
+     * Weight of the latest run in the moving averages
+     **/
+    private static final double WEIGHT = 0.3;
+
+    private static final Properties history = load();
+    private static final Map<String, Properties> updates = new ConcurrentHashMap<>();
+
+    private TestHistory() {
+    }
+
+    /**
+     * @param test
+     *        Qualified test method name, e.g. requests.SideServiceTest.when_...
+     *
+     * @return The average duration of the test in milliseconds, 0 if it has never run
+     **/
+    public static double meanMillis(String test) {
+        return Double.parseDouble(history.getProperty(test + ".meanMillis", "0"));
+    }
+
+    /**
+     * @param test
+     *        Qualified test method name
+     *
+     * @return The recent failure rate of the test between 0 and 1, 0 if it has never run
+     **/
+    public static double failureRate(String test) {
+        return Double.parseDouble(history.getProperty(test + ".failureRate", "0"));
+    }
+
+    /**
+     * Records the outcome of one run of a test.
+     * The history file is only updated by {@link #save()}.
+     **/
+    public static synchronized void record(String test, long durationMillis, boolean failed) {
+        int runs = Integer.parseInt(history.getProperty(test + ".runs", "0"));
+        double mean = runs == 0 ? durationMillis : movingAverage(meanMillis(test), durationMillis);
+        double failureRate = runs == 0 ? (failed ? 1 : 0) : movingAverage(failureRate(test), failed ? 1 : 0);
+
+        Properties entry = new Properties();
+        entry.setProperty(test + ".runs", String.valueOf(runs + 1));
+        entry.setProperty(test + ".meanMillis", String.format(Locale.ROOT, "%.1f", mean));
+        entry.setProperty(test + ".failureRate", String.format(Locale.ROOT, "%.3f", failureRate));
+
+        history.putAll(entry);
+        updates.put(test, entry);
+    }
+
+    /**
+     * Merges the recorded runs into the history file.
+     * The file is re-read under a lock, so runs recorded by other JVMs are kept.
+     **/
+    public static synchronized void save() throws IOException {
+        if (updates.isEmpty())
+            return;
+
+        Files.createDirectories(HISTORY_FILE.getParent());
+
+        try (FileChannel channel = FileChannel.open(HISTORY_FILE,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                merge(channel);
+            } finally {
+                lock.release();
+            }
+        }
+        updates.clear();
+    }
+
+    /**
+     * Re-reads the history file and writes it back with the recorded runs, under the caller's lock
+     **/
+    private static void merge(FileChannel channel) throws IOException {
+        Properties merged = new Properties();
+        merged.load(Channels.newInputStream(channel));
+
+        for (Properties entry : updates.values())
+            merged.putAll(entry);
+
+        channel.truncate(0);
+        channel.position(0);
+        OutputStream out = Channels.newOutputStream(channel);
+        merged.store(out, "Test method durations and failure rates");
+        out.flush();
+    }
+
+    private static double movingAverage(double average, double latest) {
+        return WEIGHT * latest + (1 - WEIGHT) * average;
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+
+        if (Files.exists(HISTORY_FILE)) {
+            try (InputStream in = Files.newInputStream(HISTORY_FILE)) {
+                properties.load(in);
+            } catch (IOException e) {
+                HarnessLog.log("Could not read test history, tests run in declaration order: " + e.getMessage());
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,101 @@
+package utilities;
+
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.SkipException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class orders the test methods using their local {@link TestHistory}
+ * and optionally stops the run on the first smoke test failure.
+ *
+ * Tests are run tier by tier: the "smoke" group first, then the untagged tests,
+ * then the "large-payload", "contention" and "staleness" groups. Within a tier, tests that failed recently
+ * run first and the remaining tests run from the cheapest to the most expensive,
+ * so a broken differ is reported as early as possible.
+ * TestNG still runs the methods of one class together, so classes are run
+ * in the order of their most urgent method (the suite sets preserve-order to false).
+ *
+ * Fail-fast mode is enabled with FAIL_FAST=true (see {@link Environment}). Once a smoke test fails,
+ * every remaining test is skipped.
+ *
+ * @author Adebowale Otulana
+ */
+public class TestScheduler implements IMethodInterceptor, IInvokedMethodListener, ISuiteListener {
+
+    public static final String SMOKE = "smoke";
+    public static final String LARGE_PAYLOAD = "large-payload";
+    public static final String CONTENTION = "contention";
+    public static final String STALENESS = "staleness";
+
+    private static final boolean FAIL_FAST = Boolean.parseBoolean(Environment.get("FAIL_FAST", "false"));
+
+    private static volatile String abortReason;
+
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        List<IMethodInstance> ordered = new ArrayList<>(methods);
+        ordered.sort(Comparator
+                .comparingInt((IMethodInstance method) -> tier(method.getMethod()))
+                .thenComparing(method -> -TestHistory.failureRate(qualifiedName(method.getMethod())))
+                .thenComparingDouble(method -> TestHistory.meanMillis(qualifiedName(method.getMethod()))));
+        return ordered;
+    }
+
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (abortReason != null && method.isTestMethod())
+            throw new SkipException("Skipped by fail-fast mode: " + abortReason);
+    }
+
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod() || testResult.getStatus() == ITestResult.SKIP)
+            return;
+
+        boolean failed = testResult.getStatus() == ITestResult.FAILURE;
+        TestHistory.record(qualifiedName(testResult.getMethod()),
+                testResult.getEndMillis() - testResult.getStartMillis(), failed);
+
+        if (FAIL_FAST && failed && isInGroup(testResult.getMethod(), SMOKE))
+            abortReason = qualifiedName(testResult.getMethod()) + " failed";
+    }
+
+    public void onStart(ISuite suite) {
+    }
+
+    public void onFinish(ISuite suite) {
+        try {
+            TestHistory.save();
+        } catch (IOException e) {
+            HarnessLog.log("Could not save test history: " + e.getMessage());
+        }
+    }
+
+    private static int tier(ITestNGMethod method) {
+        if (isInGroup(method, SMOKE))
+            return 0;
+
+        if (isInGroup(method, LARGE_PAYLOAD) || isInGroup(method, CONTENTION) || isInGroup(method, STALENESS))
+            return 2;
+
+        return 1;
+    }
+
+    private static boolean isInGroup(ITestNGMethod method, String group) {
+        return Arrays.asList(method.getGroups()).contains(group);
+    }
+
+    static String qualifiedName(ITestNGMethod method) {
+        return method.getRealClass().getName() + "." + method.getMethodName();
+    }
+}
@@ -1,10 +1,17 @@
 package utilities;
 
+import io.restassured.config.EncoderConfig;
+import io.restassured.config.RestAssuredConfig;
 import io.restassured.http.ContentType;
 import io.restassured.response.Response;
+import io.restassured.response.ValidatableResponse;
+import io.restassured.specification.RequestSpecification;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
 import java.util.Base64;
-import java.util.Random;
 
 import static io.restassured.RestAssured.given;
 
@@ -18,6 +25,18 @@ public class TestUtililities {
 
     public static long id;
 
+    /**
+     * Load modes turn this off, logging every diff response would dominate their measurements
+     **/
+    public static volatile boolean logDiffResponses = true;
+
+    /**
+     * RestAssured reads JSON bodies given as an InputStream into memory,
+     * encoding them as binary hands the stream to the HTTP client as it is
+     **/
+    private static final RestAssuredConfig STREAMED_JSON = RestAssuredConfig.config()
+            .encoderConfig(EncoderConfig.encoderConfig().encodeContentTypeAs(ContentType.JSON.toString(), ContentType.BINARY));
+
     /**
      * This utility method performs Base64 encode operation using RFC4648 encoder.
      * This is based on the assumption that the Base64 encoded data required by the
@@ -65,9 +84,35 @@ public class TestUtililities {
         return response;
     }
 
+    /**
+     * This utility method returns the JSON request body of a side value: the value Base64 encoded and quoted.
+     * Bodies are served from the {@link PayloadCache}, so a value sent for many IDs is encoded once.
+     *
+     * @param value
+     *        Side value before Base64 encoding
+     *
+     * @return The body, ready to be sent; it must not be modified
+     **/
+    public static byte[] jsonBody(String value) {
+        return PayloadCache.body(value);
+    }
+
+    /**
+     * This utility method returns the JSON request body of a side value that is sent only once,
+     * e.g. a random value, encoded without the {@link PayloadCache}.
+     *
+     * @param value
+     *        Side value before Base64 encoding
+     *
+     * @return The body, ready to be sent
+     **/
+    public static byte[] oneOffJsonBody(String value) {
+        return PayloadCache.oneOffBody(value);
+    }
+
     /**
      * This method creates a valid HTTP POST request for the side service.
-     * It sets the ID, side and Base64 encoded data.
+     * It sets the ID, side and a request body from {@link #jsonBody(String)}.
      *
      * @param id
      *        Identifies a side in the list of all sides
@@ -75,18 +120,126 @@ public class TestUtililities {
      * @param side
      *        Left or Right
      *
-     * @param value
-     *        Request Body Data
+     * @param body
+     *        Request Body Data, sent as it is
      *
      * @return response
      **/
-    public static Response setSideValue(String id, String side, String value) {
+    public static Response setSideValue(long id, String side, byte[] body) {
         Response response =
                 given().
                         contentType(ContentType.JSON).
                         pathParam("id",id). //Sets ID
                         pathParam("side", side). //Sets side
-                        body(value).
+                        body(body).
+                when().
+                        post(Endpoints.POST_SIDE).
+                then().
+                        extract().
+                            response();
+
+        return response;
+    }
+
+    /**
+     * This method creates a valid HTTP POST request for the side service.
+     * It sets the ID, side and a request body from {@link #jsonBody(String)}.
+     *
+     * @param id
+     *        Identifies a side in the list of all sides
+     *
+     * @param side
+     *        Left or Right
+     *
+     * @param body
+     *        Request Body Data, sent as it is
+     *
+     * @return response
+     **/
+    public static Response setSideValue(String id, String side, byte[] body) {
+        Response response =
+                given().
+                        contentType(ContentType.JSON).
+                        pathParam("id",id). //Sets ID
+                        pathParam("side", side). //Sets side
+                        body(body).
+                when().
+                        post(Endpoints.POST_SIDE).
+                then().
+                        extract().
+                            response();
+
+        return response;
+    }
+
+    /**
+     * This method creates a valid HTTP POST request for the side service of a given differ instance,
+     * e.g. one of the two differ builds compared by load.ABComparison.
+     * It sets the ID, side and a request body from {@link #jsonBody(String)}.
+     *
+     * @param host
+     *        Base URI of the differ instance, used instead of HOST
+     *
+     * @param id
+     *        Identifies a side in the list of all sides
+     *
+     * @param side
+     *        Left or Right
+     *
+     * @param body
+     *        Request Body Data, sent as it is
+     *
+     * @return response
+     **/
+    public static Response setSideValue(URI host, long id, String side, byte[] body) {
+        Response response =
+                given().
+                        baseUri(host.toString()). //Sets differ instance
+                        contentType(ContentType.JSON).
+                        pathParam("id",id). //Sets ID
+                        pathParam("side", side). //Sets side
+                        body(body).
+                when().
+                        post(Endpoints.POST_SIDE).
+                then().
+                        extract().
+                            response();
+
+        return response;
+    }
+
+    /**
+     * This method creates a valid HTTP POST request for the side service with a compressed body.
+     * It sets the ID, side, Content-Encoding and a request body from {@link #jsonBody(String)}, compressed,
+     * and accepts a response compressed with the same content coding.
+     * With {@link Compression#NONE}, the body is sent as it is and only an uncompressed response is accepted.
+     *
+     * @param id
+     *        Identifies a side in the list of all sides
+     *
+     * @param side
+     *        Left or Right
+     *
+     * @param body
+     *        Request Body Data, before compression
+     *
+     * @param compression
+     *        Content coding of the request body
+     *
+     * @return response
+     **/
+    public static Response setSideValue(long id, String side, byte[] body, Compression compression) {
+        RequestSpecification request = given();
+        if (compression != Compression.NONE)
+            request.header("Content-Encoding", compression.getContentEncoding()); //Sets content coding
+
+        Response response =
+                request.
+                        contentType(ContentType.JSON).
+                        header("Accept-Encoding", compression == Compression.NONE ? "identity" : compression.getContentEncoding()).
+                        pathParam("id",id). //Sets ID
+                        pathParam("side", side). //Sets side
+                        body(compression.encode(body)).
                 when().
                         post(Endpoints.POST_SIDE).
                 then().
@@ -96,6 +249,51 @@ public class TestUtililities {
         return response;
     }
 
+    /**
+     * This method creates a valid HTTP POST request for the side service with the content of a file.
+     * It sets the ID, side and the Base64 encoded file content, which is streamed from a
+     * memory-mapped file (see {@link MappedBase64Body}) instead of being loaded onto the heap.
+     * The side service echoes the value in its response body, which is discarded for the same reason:
+     * only the status code and headers of the returned response can be checked.
+     *
+     * @param id
+     *        Identifies a side in the list of all sides
+     *
+     * @param side
+     *        Left or Right
+     *
+     * @param file
+     *        File whose raw bytes are the side value, e.g. a fixture or a production sample
+     *
+     * @return response
+     **/
+    public static Response setSideValue(long id, String side, Path file) throws IOException {
+        try (MappedBase64Body body = new MappedBase64Body(file)) {
+            Response response =
+                    given().
+                            config(STREAMED_JSON). //Streams the body instead of buffering it
+                            contentType(ContentType.JSON).
+                            pathParam("id",id). //Sets ID
+                            pathParam("side", side). //Sets side
+                            body(body).
+                    when().
+                            post(Endpoints.POST_SIDE).
+                    then().
+                            extract().
+                                response();
+
+            //Drain the echoed value, so the connection is released without loading it onto the heap
+            try (InputStream echo = response.asInputStream()) {
+                byte[] buffer = new byte[64 * 1024];
+                while (echo.read(buffer) >= 0) {
+                    //Discard
+                }
+            }
+
+            return response;
+        }
+    }
+
     /**
      * This method creates a valid HTTP POST request for the side service without a body.
      * It sets the ID and side.
@@ -125,7 +323,7 @@ public class TestUtililities {
 
     /**
      * This method creates a valid HTTP GET request to differ sides.
-     * It also logs all request details.
+     * It also logs all request details, unless {@link #logDiffResponses} is turned off.
      *
      * @param id
      *        A valid side ID
@@ -133,6 +331,33 @@ public class TestUtililities {
      * @return response
      */
     public static Response differentiateSides(long id) {
+        ValidatableResponse validatableResponse =
+                given().
+                        contentType(ContentType.JSON).
+                        pathParam("id",id). //Sets ID
+                when().
+                        get(Endpoints.GET_DIFF).
+                then();
+
+        if (logDiffResponses)
+            validatableResponse.log().all();
+
+        Response response = validatableResponse.extract().response();
+
+        return response;
+    }
+
+    /**
+     * This method creates a valid HTTP GET request to differ sides and reads the ranges of different characters
+     * straight from the response stream (see {@link DiffRanges}), so the detail of a large diff
+     * is never built as a string. The response is not logged for the same reason.
+     *
+     * @param id
+     *        A valid side ID
+     *
+     * @return The ranges of different characters, empty unless the sides differ in characters
+     */
+    public static DiffRanges differentRanges(long id) throws IOException {
         Response response =
                 given().
                         contentType(ContentType.JSON).
@@ -140,19 +365,63 @@ public class TestUtililities {
                 when().
                         get(Endpoints.GET_DIFF).
                 then().
-                        log().all().
                         extract().
-                                response();
+                            response();
+
+        try (InputStream body = response.asInputStream()) {
+            return DiffRanges.parse(body);
+        }
+    }
+
+    /**
+     * This method creates a valid HTTP GET request to differ sides on a given differ instance.
+     * It also logs all request details, unless {@link #logDiffResponses} is turned off.
+     *
+     * @param host
+     *        Base URI of the differ instance, used instead of HOST
+     *
+     * @param id
+     *        A valid side ID
+     *
+     * @return response
+     */
+    public static Response differentiateSides(URI host, long id) {
+        ValidatableResponse validatableResponse =
+                given().
+                        baseUri(host.toString()). //Sets differ instance
+                        contentType(ContentType.JSON).
+                        pathParam("id",id). //Sets ID
+                when().
+                        get(Endpoints.GET_DIFF).
+                then();
+
+        if (logDiffResponses)
+            validatableResponse.log().all();
+
+        Response response = validatableResponse.extract().response();
 
         return response;
     }
 
     /**
      * This method generates random long values that are used as unique side IDs.
-     * It ensures that the generated values are positive.
+     * It ensures that the generated values are positive
+     * and within the ID range of the current shard.
      */
     public static void generateID() {
-        Random randomID = new Random();
-        id = randomID.nextLong() & Long.MAX_VALUE; //Positive random IDs
+        id = Shard.randomID(); //Positive random IDs
+    }
+
+    /**
+     * This method maps a fixed side ID used by a test (e.g. 999) into the ID range of the current shard,
+     * so that shards running in parallel never write to the same ID.
+     *
+     * @param id
+     *        Fixed ID used by the test
+     *
+     * @return The ID to send to the service
+     */
+    public static long fixedID(long id) {
+        return Shard.fixedID(id);
     }
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package utilities;
+
+import com.aventstack.extentreports.markuputils.Markup;
+
+import java.util.Locale;
+
+/**
+ * This class draws the trend of a metric across runs, or across the sampling windows of a run,
+ * as an inline SVG line chart for the test report:
+ * the historical band as a shaded area, one point per run and the latest run highlighted,
+ * red when it is outside the band.
+ *
+ * @author Adebowale Otulana
+ */
+public class TrendChart implements Markup {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 120;
+    private static final int PADDING = 24;
+
+    private final String title;
+    private final double[] values;
+    private final double[] band;
+    private final boolean drifts;
+
+    /**
+     * @param title
+     *        Label of the chart, e.g. the metric name
+     *
+     * @param values
+     *        Value of the metric in every run, oldest first
+     *
+     * @param band
+     *        Lower and upper bound of the historical band, null if there is none yet
+     *
+     * @param drifts
+     *        true if the latest value is outside the band
+     **/
+    public TrendChart(String title, double[] values, double[] band, boolean drifts) {
+        this.title = title;
+        this.values = values;
+        this.band = band;
+        this.drifts = drifts;
+    }
+
+    public String getMarkup() {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (band != null) {
+            min = Math.min(min, band[0]);
+            max = Math.max(max, band[1]);
+        }
+        min = Math.max(0, min);
+        if (max <= min)
+            max = min + 1;
+
+        StringBuilder svg = new StringBuilder(1024);
+        svg.append(String.format(Locale.ROOT,
+                "<svg xmlns='http://www.w3.org/2000/svg' width='%d' height='%d' style='background:#fff'>", WIDTH, HEIGHT));
+        svg.append(String.format(Locale.ROOT,
+                "<text x='4' y='14' font-size='11' fill='#333'>%s</text>", escape(title)));
+        svg.append(String.format(Locale.ROOT,
+                "<text x='4' y='%d' font-size='10' fill='#777'>%s</text>", PADDING + 4, format(max)));
+        svg.append(String.format(Locale.ROOT,
+                "<text x='4' y='%d' font-size='10' fill='#777'>%s</text>", HEIGHT - 4, format(min)));
+
+        if (band != null) {
+            double top = y(Math.min(max, band[1]), min, max);
+            double bottom = y(Math.max(min, band[0]), min, max);
+            svg.append(String.format(Locale.ROOT,
+                    "<rect x='%d' y='%.1f' width='%d' height='%.1f' fill='#9ecae1' fill-opacity='0.4'/>",
+                    PADDING * 2, top, WIDTH - PADDING * 3, Math.max(0, bottom - top)));
+        }
+
+        StringBuilder points = new StringBuilder();
+        for (int i = 0; i < values.length; i++)
+            points.append(String.format(Locale.ROOT, "%.1f,%.1f ", x(i), y(values[i], min, max)));
+        svg.append("<polyline fill='none' stroke='#3182bd' stroke-width='1.5' points='").append(points).append("'/>");
+
+        if (values.length > 0) {
+            int last = values.length - 1;
+            svg.append(String.format(Locale.ROOT, "<circle cx='%.1f' cy='%.1f' r='3.5' fill='%s'><title>%s</title></circle>",
+                    x(last), y(values[last], min, max), drifts ? "#de2d26" : "#31a354", format(values[last])));
+        }
+
+        return svg.append("</svg>").toString();
+    }
+
+    private double x(int index) {
+        int plotWidth = WIDTH - PADDING * 3;
+        return PADDING * 2 + (values.length == 1 ? plotWidth : (double) index / (values.length - 1) * plotWidth);
+    }
+
+    private static double y(double value, double min, double max) {
+        int plotHeight = HEIGHT - PADDING - 8;
+        return PADDING + (1 - (value - min) / (max - min)) * plotHeight;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, value >= 100 ? "%.0f" : "%.2f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&#39;");
+    }
+}
@@ -0,0 +1,286 @@
+package utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the performance numbers of every run, so gradual decay shows up across runs:
+ * test durations, request latency percentiles by endpoint and throughput,
+ * together with the git commit of the harness and the build of the differ they were measured against.
+ *
+ * The store is a CSV file in the history folder of the test output, one row per metric and run.
+ * Rows are appended under a file lock, so shards running in parallel can share it,
+ * and only the latest TREND_MAX_RUNS runs are kept.
+ *
+ * A metric drifts when its value in this run is outside the band of its previous runs of the same shard,
+ * since each shard runs other tests on a machine of its own:
+ * the median of the latest TREND_WINDOW runs, plus or minus TREND_BAND_SIGMAS robust standard deviations
+ * (1.4826 times the median absolute deviation), but never narrower than TREND_MIN_BAND_PERCENT of the median
+ * or, for metrics in milliseconds, than TREND_MIN_BAND_MS, so the jitter of tests that take a few milliseconds is not flagged.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * DIFFER_BUILD=unknown - build identifier of the differ under test, e.g. its version or image tag
+ * GIT_COMMIT - commit of the harness, read from git when not set
+ * TREND_MAX_RUNS=200 - runs kept in the store
+ * TREND_WINDOW=20 - previous runs the band is computed from
+ * TREND_MIN_RUNS=5 - previous runs needed before a metric can drift
+ * TREND_BAND_SIGMAS=3 - half-width of the band in robust standard deviations
+ * TREND_MIN_BAND_PERCENT=20 - minimum half-width of the band, in percent of the median
+ * TREND_MIN_BAND_MS=25 - minimum half-width of the band of metrics in milliseconds
+ *
+ * @author Adebowale Otulana
+ */
+public final class TrendStore {
+
+    public static final Path TREND_FILE = Paths.get("test-output", "history", "trends.csv");
+
+    private static final String HEADER = "run,timestamp,commit,differ_build,shard,metric,value";
+
+    private static final int MAX_RUNS = Integer.parseInt(Environment.get("TREND_MAX_RUNS", "200"));
+    private static final int WINDOW = Integer.parseInt(Environment.get("TREND_WINDOW", "20"));
+    private static final int MIN_RUNS = Integer.parseInt(Environment.get("TREND_MIN_RUNS", "5"));
+    private static final double BAND_SIGMAS = Double.parseDouble(Environment.get("TREND_BAND_SIGMAS", "3"));
+    private static final double MIN_BAND_PERCENT = Double.parseDouble(Environment.get("TREND_MIN_BAND_PERCENT", "20"));
+    private static final double MIN_BAND_MS = Double.parseDouble(Environment.get("TREND_MIN_BAND_MS", "25"));
+
+    private static final String RUN = now("yyyyMMdd-HHmmss");
+    private static final String TIMESTAMP = now("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final String COMMIT = commit();
+    private static final String DIFFER_BUILD = Environment.get("DIFFER_BUILD", "unknown");
+
+    /**
+     * Values of the previous runs by metric, oldest first
+     **/
+    private static final Map<String, List<Double>> history = load();
+    private static final Map<String, Double> current = new LinkedHashMap<>();
+
+    private TrendStore() {
+    }
+
+    /**
+     * @return GIT_COMMIT, else the abbreviated commit git reports for the working directory, else unknown
+     **/
+    public static String commit() {
+        String commit = Environment.get("GIT_COMMIT");
+        if (commit != null && !commit.trim().isEmpty())
+            return commit.trim();
+
+        try {
+            Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(git.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = out.readLine();
+                if (git.waitFor(10, TimeUnit.SECONDS) && git.exitValue() == 0 && line != null)
+                    return line.trim();
+            }
+        } catch (IOException e) {
+            //No git on the path, e.g. a source snapshot
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "unknown";
+    }
+
+    /**
+     * @return DIFFER_BUILD, unknown if it is not configured
+     **/
+    public static String differBuild() {
+        return DIFFER_BUILD;
+    }
+
+    /**
+     * Records the value of a metric in this run.
+     * The store is only updated by {@link #save()}.
+     *
+     * @param metric
+     *        Metric name, e.g. test.requests.SideServiceTest.when_....duration_ms
+     **/
+    public static synchronized void record(String metric, double value) {
+        current.put(key(metric), value);
+    }
+
+    /**
+     * @return The values of the metric in the previous runs, oldest first, then its value in this run if recorded
+     **/
+    public static synchronized double[] trend(String metric) {
+        metric = key(metric);
+        List<Double> previous = history.getOrDefault(metric, new ArrayList<>());
+        Double latest = current.get(metric);
+
+        double[] values = new double[previous.size() + (latest == null ? 0 : 1)];
+        for (int i = 0; i < previous.size(); i++)
+            values[i] = previous.get(i);
+        if (latest != null)
+            values[values.length - 1] = latest;
+        return values;
+    }
+
+    /**
+     * @return The lower and upper bound of the historical band of the metric,
+     * null if it has fewer than TREND_MIN_RUNS previous runs
+     **/
+    public static synchronized double[] band(String metric) {
+        metric = key(metric);
+        List<Double> previous = history.getOrDefault(metric, new ArrayList<>());
+        if (previous.size() < MIN_RUNS)
+            return null;
+
+        double[] window = new double[Math.min(WINDOW, previous.size())];
+        for (int i = 0; i < window.length; i++)
+            window[i] = previous.get(previous.size() - window.length + i);
+
+        double median = median(window);
+        double[] deviations = new double[window.length];
+        for (int i = 0; i < window.length; i++)
+            deviations[i] = Math.abs(window[i] - median);
+
+        double halfWidth = Math.max(BAND_SIGMAS * 1.4826 * median(deviations), MIN_BAND_PERCENT / 100 * Math.abs(median));
+        if (metric.endsWith("_ms"))
+            halfWidth = Math.max(halfWidth, MIN_BAND_MS);
+
+        //Durations, latencies and throughput are never negative
+        return new double[] {Math.max(0, median - halfWidth), median + halfWidth};
+    }
+
+    /**
+     * @return true if the value of the metric in this run is outside its historical band
+     **/
+    public static synchronized boolean drifts(String metric) {
+        metric = key(metric);
+        double[] band = band(metric);
+        Double latest = current.get(metric);
+        return band != null && latest != null && (latest < band[0] || latest > band[1]);
+    }
+
+    /**
+     * @return The metrics recorded in this run that drift, in the order they were recorded
+     **/
+    public static synchronized List<String> drifting() {
+        List<String> drifting = new ArrayList<>();
+        for (String metric : current.keySet()) {
+            if (drifts(metric))
+                drifting.add(metric);
+        }
+        return drifting;
+    }
+
+    /**
+     * Appends the metrics of this run to the store and drops the rows of runs beyond TREND_MAX_RUNS.
+     * The file is re-read under a lock, so runs saved by other JVMs are kept.
+     **/
+    public static synchronized void save() throws IOException {
+        if (current.isEmpty())
+            return;
+
+        Files.createDirectories(TREND_FILE.getParent());
+
+        try (FileChannel channel = FileChannel.open(TREND_FILE,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //Released when the channel is closed
+            channel.lock();
+
+            List<String[]> rows = read(new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8)));
+            String shard = shard();
+            for (Map.Entry<String, Double> metric : current.entrySet()) {
+                rows.add(new String[] {RUN, TIMESTAMP, COMMIT, DIFFER_BUILD, shard, metric.getKey(),
+                        String.format(Locale.ROOT, "%.3f", metric.getValue())});
+            }
+
+            //Keep the latest runs only, a run of a shard counts as a run
+            Set<String> runs = new LinkedHashSet<>();
+            for (String[] row : rows)
+                runs.add(row[0] + '/' + row[4]);
+            Set<String> kept = new LinkedHashSet<>(new ArrayList<>(runs).subList(Math.max(0, runs.size() - MAX_RUNS), runs.size()));
+
+            StringBuilder text = new StringBuilder(HEADER).append('\n');
+            for (String[] row : rows) {
+                if (kept.contains(row[0] + '/' + row[4]))
+                    text.append(String.join(",", row)).append('\n');
+            }
+
+            channel.truncate(0);
+            channel.position(0);
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private static Map<String, List<Double>> load() {
+        Map<String, List<Double>> values = new LinkedHashMap<>();
+        if (!Files.exists(TREND_FILE))
+            return values;
+
+        String shard = shard();
+        try (BufferedReader in = Files.newBufferedReader(TREND_FILE, StandardCharsets.UTF_8)) {
+            for (String[] row : read(in)) {
+                if (row[4].equals(shard))
+                    values.computeIfAbsent(row[5], metric -> new ArrayList<>()).add(Double.parseDouble(row[6]));
+            }
+        } catch (IOException | RuntimeException e) {
+            HarnessLog.log("Could not read performance trends, no metric can drift in this run: " + e.getMessage());
+        }
+        return values;
+    }
+
+    /**
+     * @return The shard column of this run, empty if the suite is not sharded
+     **/
+    private static String shard() {
+        return Shard.isSharded() ? Shard.name() : "";
+    }
+
+    /**
+     * @return The rows of the store without the header, skipping malformed lines
+     **/
+    private static List<String[]> read(BufferedReader in) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] row = line.split(",", -1);
+            if (row.length == 7 && !line.equals(HEADER))
+                rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Metric names are stored in a CSV column, so they must not contain commas
+     **/
+    private static String key(String metric) {
+        return metric.replace(',', ';');
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static String now(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+}
@@ -0,0 +1,38 @@
+package utilities;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import org.testng.Reporter;
+
+import java.util.Map;
+
+/**
+ * This class registers every RestAssured request with the {@link SlowRequestWatchdog} while it is in flight:
+ * method, URI, ID, side, payload size and the test that sends it.
+ *
+ * @author Adebowale Otulana
+ */
+public class WatchdogFilter implements Filter {
+
+    public Response filter(FilterableRequestSpecification requestSpec,
+                           FilterableResponseSpecification responseSpec,
+                           FilterContext context) {
+        if (!SlowRequestWatchdog.isEnabled())
+            return context.next(requestSpec, responseSpec);
+
+        Map<String, String> pathParams = requestSpec.getNamedPathParams();
+        Long payloadBytes = context.getValue(MetricsFilter.REQUEST_LENGTH);
+        long key = SlowRequestWatchdog.started(requestSpec.getMethod(), requestSpec.getURI(),
+                pathParams.get("id"), pathParams.get("side"),
+                payloadBytes != null ? payloadBytes : MetricsFilter.requestLength(requestSpec.getBody()),
+                Reporter.getCurrentTestResult());
+        try {
+            return context.next(requestSpec, responseSpec);
+        } finally {
+            SlowRequestWatchdog.finished(key);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package utilities;
+
+import io.restassured.config.HttpClientConfig;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpParams;
+
+import javax.net.ssl.SSLContext;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the bytes that RestAssured requests send and receive on the wire:
+ * status lines, headers and bodies as they pass the socket, before any decompression.
+ * Over https, the encrypted bytes are counted.
+ *
+ * The counting sockets are only used by a client created with {@link #httpClientConfig()}, e.g.
+ * RestAssured.config = RestAssured.config().httpClient(WireCounter.httpClientConfig())
+ *
+ * @author Adebowale Otulana
+ */
+public final class WireCounter {
+
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder received = new LongAdder();
+
+    private WireCounter() {
+    }
+
+    /**
+     * @return A client configuration whose connections count their bytes; the client and its connections are reused
+     **/
+    public static HttpClientConfig httpClientConfig() {
+        return HttpClientConfig.httpClientConfig().httpClientFactory(WireCounter::httpClient).reuseHttpClientInstance();
+    }
+
+    /**
+     * @return Bytes sent so far by clients of {@link #httpClientConfig()}
+     **/
+    public static long sent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return Bytes received so far by clients of {@link #httpClientConfig()}
+     **/
+    public static long received() {
+        return received.sum();
+    }
+
+    //RestAssured 3 only takes the clients of the deprecated HttpClient 4 API
+    @SuppressWarnings("deprecation")
+    private static HttpClient httpClient() {
+        SchemeRegistry schemes = new SchemeRegistry();
+        schemes.register(new Scheme("http", 80, new PlainSocketFactory() {
+            @Override
+            public Socket createSocket(HttpParams params) {
+                return new CountingSocket();
+            }
+        }));
+        try {
+            //The TLS socket is layered over the counting socket
+            schemes.register(new Scheme("https", 443, new SSLSocketFactory(SSLContext.getDefault()) {
+                @Override
+                public Socket createSocket(HttpParams params) {
+                    return new CountingSocket();
+                }
+            }));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No default TLS context", e);
+        }
+        return new DefaultHttpClient(new PoolingClientConnectionManager(schemes));
+    }
+
+    private static final class CountingSocket extends Socket {
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0)
+                        received.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0)
+                        received.add(read);
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(super.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    sent.increment();
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                    sent.add(length);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package load;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class contains the tests for the statistics of the A/B comparison in {@link Significance}.
+ * They need no differ.
+ *
+ * The expected p-values were computed independently: the exact ones by enumerating every way to split
+ * the pooled ranks, the approximate one from the tie-corrected normal approximation with continuity correction.
+ *
+ * @author Adebowale Otulana
+ */
+public class SignificanceTest {
+
+    private static final double EXACT = 1e-12;
+
+    @Test
+    public void when_NearestRankPercentileIsTaken_Expect_SampleAtThatRank() {
+        double[] samples = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+        Assert.assertEquals(Significance.percentile(samples, 0), 1.0);
+        Assert.assertEquals(Significance.percentile(samples, 50), 5.0);
+        Assert.assertEquals(Significance.percentile(samples, 90), 9.0);
+        Assert.assertEquals(Significance.percentile(samples, 91), 10.0);
+        Assert.assertEquals(Significance.percentile(samples, 100), 10.0);
+        Assert.assertTrue(Double.isNaN(Significance.percentile(new double[0], 50)));
+    }
+
+    @Test
+    public void when_SmallGroupsDoNotOverlap_Expect_ExactMannWhitneyP() {
+        //Only 2 of the 20 ways to split six ranks into three and three are this extreme
+        Assert.assertEquals(Significance.mannWhitneyP(new double[] {1, 2, 3}, new double[] {4, 5, 6}), 0.1, EXACT);
+
+        //2 of 70
+        Assert.assertEquals(Significance.mannWhitneyP(new double[] {1, 2, 3, 4}, new double[] {5, 6, 7, 8}), 2 / 70.0, EXACT);
+    }
+
+    @Test
+    public void when_SmallGroupsHaveDifferentSizes_Expect_SameExactPEitherWayRound() {
+        double[] a = {1, 3, 5};
+        double[] b = {2, 4, 6, 7, 8};
+
+        Assert.assertEquals(Significance.mannWhitneyP(a, b), 0.25, EXACT);
+        Assert.assertEquals(Significance.mannWhitneyP(b, a), 0.25, EXACT);
+    }
+
+    @Test
+    public void when_SmallGroupsHaveTies_Expect_ExactPWithAverageRanks() {
+        //The three 2s share rank 3: 6 of the 20 splits are as extreme
+        Assert.assertEquals(Significance.mannWhitneyP(new double[] {1, 2, 2}, new double[] {2, 3, 4}), 0.3, EXACT);
+
+        //A tie across the groups at 2.5 and within B at 9: 12 of the 210 splits
+        Assert.assertEquals(Significance.mannWhitneyP(new double[] {1.5, 2.5, 2.5, 7}, new double[] {2.5, 3, 8, 9, 9, 10}),
+                12 / 210.0, EXACT);
+    }
+
+    @Test
+    public void when_AllSamplesAreEqual_Expect_PValueOfOne() {
+        Assert.assertEquals(Significance.mannWhitneyP(new double[] {5, 5, 5}, new double[] {5, 5, 5, 5}), 1.0, EXACT);
+        Assert.assertEquals(Significance.mannWhitneyP(filled(20, 5), filled(25, 5)), 1.0, EXACT);
+    }
+
+    @Test
+    public void when_EitherGroupIsEmpty_Expect_PValueOfOne() {
+        Assert.assertEquals(Significance.mannWhitneyP(new double[0], new double[] {1, 2}), 1.0);
+        Assert.assertEquals(Significance.mannWhitneyP(new double[] {1, 2}, new double[0]), 1.0);
+    }
+
+    @Test
+    public void when_LargeGroupsHaveTies_Expect_TieCorrectedNormalApproximation() {
+        double[] a = concat(filled(10, 1), filled(10, 2));
+        double[] b = concat(filled(6, 1), filled(10, 2), filled(4, 3));
+
+        //Without the tie correction the variance is 1366.7 instead of 1107.7 and the p-value 0.1075
+        Assert.assertEquals(Significance.mannWhitneyP(a, b), 0.0738159, 1e-6);
+        Assert.assertEquals(Significance.mannWhitneyP(b, a), 0.0738159, 1e-6);
+    }
+
+    @Test
+    public void when_BIsShiftedFromA_Expect_BootstrapIntervalAroundTheShift() {
+        double[] a = new double[200];
+        double[] b = new double[200];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i;
+            b[i] = i + 50;
+        }
+
+        double[] interval = Significance.bootstrapDifference(a, b, 50, 0.95, 2000, new Random(42));
+
+        //The median of B is 50 above the median of A, the interval must contain it and exclude 0
+        Assert.assertTrue(interval[0] <= interval[1], "Lower bound above upper bound: " + interval[0] + " > " + interval[1]);
+        Assert.assertTrue(interval[0] <= 50 && interval[1] >= 50, "Interval does not contain 50: " + interval[0] + ".." + interval[1]);
+        Assert.assertTrue(interval[0] > 0, "Interval contains 0: " + interval[0] + ".." + interval[1]);
+    }
+
+    @Test
+    public void when_AAndBAreTheSame_Expect_BootstrapIntervalContainingZero() {
+        double[] samples = new double[200];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = i;
+
+        double[] interval = Significance.bootstrapDifference(samples, samples.clone(), 99, 0.95, 2000, new Random(42));
+
+        Assert.assertTrue(interval[0] <= 0 && interval[1] >= 0, "Interval does not contain 0: " + interval[0] + ".." + interval[1]);
+    }
+
+    private static double[] filled(int length, double value) {
+        double[] samples = new double[length];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+
+    private static double[] concat(double[]... parts) {
+        int length = 0;
+        for (double[] part : parts)
+            length += part.length;
+
+        double[] samples = new double[length];
+        int offset = 0;
+        for (double[] part : parts) {
+            System.arraycopy(part, 0, samples, offset, part.length);
+            offset += part.length;
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,166 @@
+package requests;
+
+import hook.TestBase;
+import io.restassured.RestAssured;
+import io.restassured.config.DecoderConfig;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import responseModels.LeftSideSuccessResponse;
+import utilities.Compression;
+import utilities.Endpoints;
+import utilities.Environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static io.restassured.RestAssured.given;
+import static utilities.TestUtililities.*;
+
+/**
+ * This class contains the tests for compressed request and response bodies.
+ *
+ * A side request with a gzip or deflate Content-Encoding must be handled the way the differ under test
+ * is expected to, set with COMPRESSED_SIDES (see {@link utilities.Environment}):
+ * decoded - the side service decodes the body and stores the decompressed data (default)
+ * rejected - the side service rejects the content coding with 415 Unsupported Media Type
+ * Storing the compressed bytes, or failing with any other status, is not correct handling of the header.
+ *
+ * A diff request that accepts gzip must be answered with the content coding set with COMPRESSED_DIFFS:
+ * identity - the diff service sends the response uncompressed, without a Content-Encoding (default)
+ * gzip - the diff service compresses the response with gzip
+ *
+ * @author Adebowale Otulana
+ */
+public class CompressionTest extends TestBase {
+
+    private static final boolean DECODED = !"rejected".equals(Environment.get("COMPRESSED_SIDES", "decoded"));
+    private static final boolean GZIP_DIFFS = "gzip".equals(Environment.get("COMPRESSED_DIFFS", "identity"));
+
+    /**
+     * Before the tests, it initializes the base URI which will be used by each test method.
+     *
+     * @throws IOException
+     */
+    @BeforeTest
+    public void setBaseURI() throws IOException {
+        initializeBaseURI();
+    }
+
+    /**
+     * Generates unique ID before each test method is run
+     */
+    @BeforeMethod
+    public void uniqueIDForEachMethod() {
+        generateID();
+    }
+
+    @Test
+    public void when_GzipEncodedSideIsSent_Expect_ConfiguredHandling() {
+        //Send gzip compressed Base64 encoded data
+        Response response = setSideValue(id, "left", jsonBody("compressed with gzip"), Compression.GZIP);
+
+        //Verify that the data was decoded, or the content coding was rejected, as configured
+        assertConfiguredHandling(response, encodeInBase64("compressed with gzip"));
+    }
+
+    @Test
+    public void when_DeflateEncodedSideIsSent_Expect_ConfiguredHandling() {
+        //Send deflate compressed Base64 encoded data
+        Response response = setSideValue(id, "left", jsonBody("compressed with deflate"), Compression.DEFLATE);
+
+        //Verify that the data was decoded, or the content coding was rejected, as configured
+        assertConfiguredHandling(response, encodeInBase64("compressed with deflate"));
+    }
+
+    @Test
+    public void when_UnknownContentEncodingIsSent_Expect_415UnsupportedMediaType() {
+        //Encode Body in Base 64
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
+
+        //Send a content coding the service cannot know
+        given().
+                contentType(ContentType.JSON).
+                header("Content-Encoding", "x-unknown"). //Unknown content coding
+                pathParam("id",id).
+                pathParam("side", "left").
+                body(requestBody).
+        when().
+                post(Endpoints.POST_SIDE).
+        then().
+                assertThat().
+                    statusCode(415); //Verify HTTP Status Code
+    }
+
+    @Test
+    public void when_DiffIsRequestedWithGzipAcceptEncoding_Expect_ConfiguredContentEncoding() throws IOException {
+        //Set ID, side and value for both sides
+        setSideValue(id, "left", jsonBody("same on both sides"));
+        setSideValue(id, "right", jsonBody("same on both sides"));
+
+        //Diff the sides, accepting a gzip compressed response; RestAssured must not decode it, so the coding can be checked
+        Response response =
+                given().
+                        config(RestAssured.config().decoderConfig(DecoderConfig.decoderConfig().noContentDecoders())).
+                        contentType(ContentType.JSON).
+                        header("Accept-Encoding", "gzip").
+                        pathParam("id",id).
+                when().
+                        get(Endpoints.GET_DIFF).
+                then().
+                        extract().
+                            response();
+
+        //Verify that the HTTP Status Code is 200
+        Assert.assertEquals(response.getStatusCode(), 200);
+
+        //Verify that the response is compressed, or not, as configured
+        String contentEncoding = response.getHeader("Content-Encoding");
+        if (GZIP_DIFFS)
+            Assert.assertEquals(contentEncoding, "gzip", "Expected a gzip compressed diff response");
+        else
+            Assert.assertTrue(contentEncoding == null || "identity".equals(contentEncoding),
+                    "Expected an uncompressed diff response, got Content-Encoding " + contentEncoding);
+
+        //Decompress the response
+        byte[] body = response.asByteArray();
+        if (GZIP_DIFFS) {
+            try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = readAll(gzip);
+            }
+        }
+
+        //Verify that the type is EQUAL
+        Assert.assertEquals(new JsonPath(new String(body, StandardCharsets.UTF_8)).getString("type"), "EQUAL");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) != -1; )
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    private static void assertConfiguredHandling(Response response, String expectedLeftValue) {
+        if (!DECODED) {
+            //Verify that HTTP Status Code is 415
+            Assert.assertEquals(response.getStatusCode(), 415, "Expected the content coding to be rejected");
+            return;
+        }
+
+        //Verify that HTTP Status Code is 200
+        Assert.assertEquals(response.getStatusCode(), 200, "Expected the content coding to be decoded");
+
+        //Verify that the stored left value is the decompressed data
+        Assert.assertEquals(response.as(LeftSideSuccessResponse.class).getLeft(), expectedLeftValue);
+    }
+}
@@ -0,0 +1,592 @@
+package requests;
+
+import hook.TestBase;
+import io.restassured.response.Response;
+import org.testng.Assert;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import responseModels.LengthTypeDetailResponse;
+import utilities.Environment;
+import utilities.LatencyHistogram;
+import utilities.Shard;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static utilities.TestUtililities.*;
+
+/**
+ * This class contains the tests for concurrent updates of the same ID.
+ *
+ * Many threads write the left and right sides of a few hot IDs and diff them in between.
+ * The history of every hot ID must be linearizable: there must be one order of all its requests,
+ * respecting that a request which completed before another started comes first, in which every diff
+ * returns the diff of the last left and right values written before it. A diff reads both sides at once,
+ * so a diff of a left value with a right value that never coexisted is a violation,
+ * even if each of them alone could have been read.
+ * It also compares request latency on one hot ID with the latency on distinct IDs,
+ * and writes the comparison to test-output/contention-report.csv.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * CONTENTION_THREADS=16 - concurrent clients of the consistency test
+ * CONTENTION_REQUESTS=40 - requests per client
+ * CONTENTION_HOT_IDS=2 - IDs shared by the clients of the consistency test
+ * CONTENTION_THREAD_STEPS=1,4,16 - client counts of the latency comparison
+ * CONTENTION_MAX_P99_RATIO - fails the latency comparison above this p99 ratio, not set by default
+ *
+ * @author Adebowale Otulana
+ */
+public class ContentionTest extends TestBase {
+
+    public static final Path REPORT_FILE = Paths.get("test-output", "contention-report.csv");
+
+    /**
+     * All values have the same length, so every diff is EQUAL or DIFFERENT_CHARS
+     **/
+    private static final String[] LEFT_VALUES = {"hot id value one", "hot id value two", "hot id value six", "hot ID VALUE ten"};
+    private static final String[] RIGHT_VALUES = {"hot id value one", "hot id value TWO", "cold id value 12", "hot id value six"};
+
+    /**
+     * Blocks of three characters, so each block is encoded into four Base64 characters of its own
+     **/
+    private static final String ZERO_BIT = "aaa";
+    private static final String ONE_BIT = "bbb";
+
+    private static final String LEFT = "left";
+    private static final String RIGHT = "right";
+    private static final String DIFF = "diff";
+
+    /**
+     * Before the tests, it initializes the base URI which will be used by each test method.
+     *
+     * @throws IOException
+     */
+    @BeforeTest(alwaysRun = true)
+    public void setBaseURI() throws IOException {
+        initializeBaseURI();
+    }
+
+    /**
+     * Generates unique ID before each test method is run
+     */
+    @BeforeMethod(alwaysRun = true)
+    public void uniqueIDForEachMethod() {
+        generateID();
+    }
+
+    @Test(groups = "contention")
+    public void when_SidesOfHotIDsAreUpdatedConcurrently_Expect_LinearizableHistoryOfEveryID() throws Exception {
+        int threads = Integer.parseInt(Environment.get("CONTENTION_THREADS", "16"));
+        int requests = Integer.parseInt(Environment.get("CONTENTION_REQUESTS", "40"));
+        long[] hotIDs = new long[Integer.parseInt(Environment.get("CONTENTION_HOT_IDS", "2"))];
+
+        //Every write gets a value of its own, so the result of a diff tells which two writes it read
+        AtomicInteger writes = new AtomicInteger();
+        int bits = 32 - Integer.numberOfLeadingZeros(threads * requests + 2 * hotIDs.length);
+
+        //Set both sides of every hot ID first, so every diff has two values to compare
+        List<Operation> operations = new ArrayList<>();
+        for (int i = 0; i < hotIDs.length; i++) {
+            hotIDs[i] = i == 0 ? id : Shard.randomID();
+            operations.add(write(hotIDs[i], LEFT, value(LEFT, writes.getAndIncrement(), bits)));
+            operations.add(write(hotIDs[i], RIGHT, value(RIGHT, writes.getAndIncrement(), bits)));
+        }
+
+        //Hammer the hot IDs with writes of both sides and diffs
+        operations.addAll(concurrently(threads, client -> {
+            Random random = new Random(client);
+            List<Operation> clientOperations = new ArrayList<>();
+
+            for (int i = 0; i < requests; i++) {
+                long hotID = hotIDs[random.nextInt(hotIDs.length)];
+                int kind = random.nextInt(5);
+
+                if (kind < 2)
+                    clientOperations.add(write(hotID, LEFT, value(LEFT, writes.getAndIncrement(), bits)));
+                else if (kind < 4)
+                    clientOperations.add(write(hotID, RIGHT, value(RIGHT, writes.getAndIncrement(), bits)));
+                else
+                    clientOperations.add(diff(hotID));
+            }
+            return clientOperations;
+        }));
+
+        //Verify that every request succeeded
+        for (Operation operation : operations)
+            Assert.assertEquals(operation.status, 200, operation.kind + " of ID " + operation.id + " failed");
+
+        //Verify that one order of the requests of each ID explains every diff of it
+        List<String> violations = new ArrayList<>();
+        for (long hotID : hotIDs) {
+            List<Operation> history = new ArrayList<>();
+            for (Operation operation : operations) {
+                if (operation.id == hotID)
+                    history.add(operation);
+            }
+
+            String violation = new Linearization(history).check();
+            if (violation != null)
+                violations.add("ID " + hotID + ": " + violation);
+        }
+
+        Assert.assertTrue(violations.isEmpty(), violations.size() + " of " + hotIDs.length
+                + " hot IDs have a history that is not linearizable: " + violations);
+    }
+
+    @Test(groups = "contention")
+    public void when_OneIDIsUpdatedByMoreClients_Expect_LatencyComparedToDistinctIDs() throws Exception {
+        String[] threadSteps = Environment.get("CONTENTION_THREAD_STEPS", "1,4,16").split(",");
+        int requests = Integer.parseInt(Environment.get("CONTENTION_REQUESTS", "40"));
+        String maxRatio = Environment.get("CONTENTION_MAX_P99_RATIO");
+
+        Files.createDirectories(REPORT_FILE.getParent());
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(REPORT_FILE))) {
+            report.println("clients,ids,requests,throughput,p50_ms,p99_ms,max_ms,errors");
+
+            for (String threadStep : threadSteps) {
+                int threads = Integer.parseInt(threadStep.trim());
+
+                //Uncontended baseline: every client writes its own ID
+                LatencyHistogram distinct = new LatencyHistogram();
+                double distinctThroughput = writeLatency(threads, requests, client -> Shard.randomID(), distinct, report, "distinct");
+
+                //Contended: every client writes the same ID
+                long hotID = Shard.randomID();
+                LatencyHistogram contended = new LatencyHistogram();
+                double contendedThroughput = writeLatency(threads, requests, client -> hotID, contended, report, "one");
+
+                double ratio = distinct.percentile(99) == 0 ? 0 : (double) contended.percentile(99) / distinct.percentile(99);
+                Reporter.log(String.format(Locale.ROOT,
+                        "Contention at %d clients: p99 %.2fms on one ID vs %.2fms on distinct IDs (x%.2f), %.0f/s vs %.0f/s",
+                        threads, contended.percentile(99) / 1000.0, distinct.percentile(99) / 1000.0, ratio,
+                        contendedThroughput, distinctThroughput));
+
+                //Verify that contention keeps the p99 within the configured ratio of the baseline
+                if (maxRatio != null)
+                    Assert.assertTrue(ratio <= Double.parseDouble(maxRatio), String.format(Locale.ROOT,
+                            "p99 on one ID is x%.2f the p99 on distinct IDs at %d clients", ratio, threads));
+            }
+        }
+    }
+
+    /**
+     * Writes sides concurrently and records their latency.
+     *
+     * @param ids
+     *        The ID each client writes
+     *
+     * @return The throughput in requests per second
+     **/
+    private static double writeLatency(int threads, int requests, ClientID ids, LatencyHistogram latency,
+                                       PrintWriter report, String mode) throws Exception {
+        long start = System.nanoTime();
+        List<Operation> operations = concurrently(threads, client -> {
+            long clientID = ids.of(client);
+            List<Operation> clientOperations = new ArrayList<>();
+
+            for (int i = 0; i < requests; i++) {
+                clientOperations.add(i % 2 == 0
+                        ? write(clientID, LEFT, LEFT_VALUES[i % LEFT_VALUES.length])
+                        : write(clientID, RIGHT, RIGHT_VALUES[i % RIGHT_VALUES.length]));
+            }
+            return clientOperations;
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int errors = 0;
+        for (Operation operation : operations) {
+            latency.record((operation.end - operation.start) / 1000);
+            if (operation.status != 200)
+                errors++;
+        }
+
+        report.println(String.format(Locale.ROOT, "%d,%s,%d,%.1f,%.2f,%.2f,%.2f,%d",
+                threads, mode, operations.size(), operations.size() / seconds,
+                latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0, latency.max() / 1000.0, errors));
+        report.flush();
+
+        //Verify that every write succeeded
+        Assert.assertEquals(errors, 0, errors + " of " + operations.size() + " writes failed on " + mode + " ID(s)");
+
+        return operations.size() / seconds;
+    }
+
+    /**
+     * Runs the clients at the same time and collects their operations.
+     **/
+    private static List<Operation> concurrently(int threads, Client client) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startGate = new CountDownLatch(1);
+        ITestResult test = Reporter.getCurrentTestResult();
+        boolean logDiffs = logDiffResponses;
+        logDiffResponses = false;
+
+        try {
+            List<Future<List<Operation>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int clientNumber = i;
+                futures.add(executor.submit((Callable<List<Operation>>) () -> {
+                    //Attribute the requests of the client, e.g. slow request captures, to the test
+                    Reporter.setCurrentTestResult(test);
+                    startGate.await();
+                    return client.run(clientNumber);
+                }));
+            }
+            startGate.countDown();
+
+            List<Operation> operations = new ArrayList<>();
+            for (Future<List<Operation>> future : futures)
+                operations.addAll(future.get());
+            return operations;
+        } finally {
+            logDiffResponses = logDiffs;
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes the diff result of two Base64 encoded values of the same length,
+     * in the format of the differ, e.g. "DIFFERENT_CHARS Values are different on char(s) [0-5] [7]."
+     **/
+    private static String expectedDiff(String left, String right) {
+        StringBuilder detail = new StringBuilder("Values are different on char(s)");
+        int i = 0;
+
+        while (i < left.length()) {
+            if (left.charAt(i) == right.charAt(i)) {
+                i++;
+                continue;
+            }
+
+            int first = i;
+            while (i < left.length() && left.charAt(i) != right.charAt(i))
+                i++;
+
+            detail.append(" [").append(first);
+            if (i - 1 > first)
+                detail.append('-').append(i - 1);
+            detail.append(']');
+        }
+
+        return detail.length() == "Values are different on char(s)".length()
+                ? "EQUAL"
+                : "DIFFERENT_CHARS " + detail + ".";
+    }
+
+    private static Operation write(long id, String side, String value) {
+        long start = System.nanoTime();
+        Response response = setSideValue(id, side, jsonBody(value));
+        return new Operation(id, side, value, start, System.nanoTime(), response.getStatusCode());
+    }
+
+    private static Operation diff(long id) {
+        long start = System.nanoTime();
+        Response response = differentiateSides(id);
+        long end = System.nanoTime();
+
+        //Deserialize to a "Type-Detail Response" Object and keep the result the way expectedDiff formats it
+        String result = null;
+        if (response.getStatusCode() == 200) {
+            LengthTypeDetailResponse diffResponse = response.as(LengthTypeDetailResponse.class);
+            result = diffResponse.getType().equals("EQUAL")
+                    ? "EQUAL"
+                    : diffResponse.getType() + " " + diffResponse.getDetail();
+        }
+        return new Operation(id, DIFF, result, start, end, response.getStatusCode());
+    }
+
+    /**
+     * @return The value of the given write of a side: the bits of the write number as blocks of three characters,
+     * in the first half of the value for the left side and in the second half for the right side.
+     * The other half is all zero bits, so the diff of a left and a right value is different for every two writes.
+     **/
+    private static String value(String side, int write, int bits) {
+        StringBuilder number = new StringBuilder();
+        StringBuilder zero = new StringBuilder();
+        for (int bit = 0; bit < bits; bit++) {
+            number.append((write >> bit & 1) == 1 ? ONE_BIT : ZERO_BIT);
+            zero.append(ZERO_BIT);
+        }
+        return side.equals(LEFT) ? number.append(zero).toString() : zero.append(number).toString();
+    }
+
+    /**
+     * Searches for an order of the requests of one ID in which every diff returns the diff of the sides
+     * written last before it. It walks through the starts and completions of the requests in time order
+     * and keeps every configuration the requests placed so far can be in: the writes the sides hold and which
+     * of the requests in flight are placed already. A request is placed at the latest when it completes
+     * (just-in-time linearization, after Lowe). Every write has a value of its own, so a diff can only be
+     * placed after the two writes it read, which keeps the configurations few:
+     * - a diff in flight is placed as soon as the sides hold the writes it read, which never rules out an order
+     * - before a completing request is placed, only the writes read by a diff in flight are placed to place it
+     * - a write no diff read is placed right before the next write of its side, where nobody can read it
+     **/
+    private static final class Linearization {
+        private final Operation[] operations;
+        private final boolean[] left;
+        private final boolean[] unread;
+
+        /**
+         * For each diff, the (left write, right write) pairs whose diff it returned, as left << 32 | right
+         **/
+        private final long[][] reads;
+
+        Linearization(List<Operation> history) {
+            operations = history.toArray(new Operation[0]);
+            left = new boolean[operations.length];
+            unread = new boolean[operations.length];
+            reads = new long[operations.length][];
+
+            Map<String, List<Long>> pairs = new HashMap<>();
+            for (int l = 0; l < operations.length; l++) {
+                if (!operations[l].kind.equals(LEFT))
+                    continue;
+                left[l] = true;
+                String leftValue = encodeInBase64(operations[l].value);
+
+                for (int r = 0; r < operations.length; r++) {
+                    if (operations[r].kind.equals(RIGHT))
+                        pairs.computeIfAbsent(expectedDiff(leftValue, encodeInBase64(operations[r].value)), diff -> new ArrayList<>())
+                                .add((long) l << 32 | r);
+                }
+            }
+
+            Arrays.fill(unread, true);
+            for (int i = 0; i < operations.length; i++) {
+                if (!operations[i].kind.equals(DIFF))
+                    continue;
+                unread[i] = false;
+
+                List<Long> read = pairs.getOrDefault(operations[i].value, new ArrayList<>());
+                reads[i] = new long[read.size()];
+                for (int p = 0; p < read.size(); p++) {
+                    reads[i][p] = read.get(p);
+                    unread[(int) (read.get(p) >>> 32)] = false;
+                    unread[(int) (long) read.get(p)] = false;
+                }
+                Arrays.sort(reads[i]);
+            }
+        }
+
+        /**
+         * @return null if the history is linearizable, else the request that could not be placed
+         **/
+        String check() {
+            for (int i = 0; i < operations.length; i++) {
+                if (reads[i] != null && reads[i].length == 0)
+                    return "the diff that returned " + operations[i].value + " is no diff of a left and a right value written";
+            }
+
+            //Starts and completions in time order, a start before a completion at the same time
+            long[][] events = new long[operations.length * 2][];
+            for (int i = 0; i < operations.length; i++) {
+                events[2 * i] = new long[] {operations[i].start, 0, i};
+                events[2 * i + 1] = new long[] {operations[i].end, 1, i};
+            }
+            Arrays.sort(events, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+            Set<Configuration> configurations = new HashSet<>();
+            configurations.add(new Configuration(-1, -1, new BitSet()));
+            BitSet inFlight = new BitSet(operations.length);
+
+            for (long[] event : events) {
+                int request = (int) event[2];
+                Set<Configuration> next = new HashSet<>();
+
+                if (event[1] == 0) {
+                    inFlight.set(request);
+                    for (Configuration configuration : configurations)
+                        next.add(placeDiffs(configuration, inFlight));
+                } else {
+                    for (Configuration configuration : configurations)
+                        placeUntil(configuration, request, inFlight, next);
+                    inFlight.clear(request);
+
+                    if (next.isEmpty()) {
+                        Operation operation = operations[request];
+                        return String.format(Locale.ROOT, "no order of its %d requests explains them, the %s %s "
+                                        + "cannot be placed after the requests that completed before it", operations.length,
+                                operation.kind, operation.kind.equals(DIFF) ? "that returned " + operation.value : "of " + operation.value);
+                    }
+                }
+                configurations = next;
+            }
+            return null;
+        }
+
+        /**
+         * Adds every configuration in which the completing request is placed,
+         * reached by placing it or the writes read by diffs in flight
+         **/
+        private void placeUntil(Configuration start, int request, BitSet inFlight, Set<Configuration> placed) {
+            Set<Configuration> seen = new HashSet<>();
+            List<Configuration> queue = new ArrayList<>();
+            queue.add(start);
+            seen.add(start);
+
+            for (int q = 0; q < queue.size(); q++) {
+                Configuration configuration = queue.get(q);
+                if (configuration.placed.get(request)) {
+                    BitSet withoutRequest = (BitSet) configuration.placed.clone();
+                    withoutRequest.clear(request);
+                    placed.add(new Configuration(configuration.left, configuration.right, withoutRequest));
+                    continue;
+                }
+
+                if (reads[request] == null) {
+                    Configuration after = placeWrite(configuration, request, inFlight);
+                    if (seen.add(after))
+                        queue.add(after);
+                }
+
+                //Place the writes a diff in flight read, which places that diff
+                for (int diff = inFlight.nextSetBit(0); diff >= 0; diff = inFlight.nextSetBit(diff + 1)) {
+                    if (reads[diff] == null || configuration.placed.get(diff))
+                        continue;
+
+                    for (long pair : reads[diff]) {
+                        int leftWrite = (int) (pair >>> 32);
+                        int rightWrite = (int) pair;
+                        boolean placeLeft = configuration.left != leftWrite;
+                        boolean placeRight = configuration.right != rightWrite;
+                        if (placeLeft && !placeable(configuration, leftWrite, inFlight)
+                                || placeRight && !placeable(configuration, rightWrite, inFlight))
+                            continue;
+
+                        List<Configuration> afters = new ArrayList<>();
+                        if (placeLeft && placeRight) {
+                            afters.add(placeWrite(placeWrite(configuration, leftWrite, inFlight), rightWrite, inFlight));
+                            afters.add(placeWrite(placeWrite(configuration, rightWrite, inFlight), leftWrite, inFlight));
+                        } else {
+                            afters.add(placeWrite(configuration, placeLeft ? leftWrite : rightWrite, inFlight));
+                        }
+
+                        for (Configuration after : afters) {
+                            if (seen.add(after))
+                                queue.add(after);
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean placeable(Configuration configuration, int write, BitSet inFlight) {
+            return inFlight.get(write) && !configuration.placed.get(write);
+        }
+
+        /**
+         * @return The configuration with the write placed, right after the unread writes in flight of its side
+         * and right before every diff in flight that read the sides it leaves
+         **/
+        private Configuration placeWrite(Configuration configuration, int write, BitSet inFlight) {
+            BitSet placed = (BitSet) configuration.placed.clone();
+            for (int i = inFlight.nextSetBit(0); i >= 0; i = inFlight.nextSetBit(i + 1)) {
+                if (unread[i] && left[i] == left[write])
+                    placed.set(i);
+            }
+            placed.set(write);
+
+            return placeDiffs(left[write]
+                    ? new Configuration(write, configuration.right, placed)
+                    : new Configuration(configuration.left, write, placed), inFlight);
+        }
+
+        /**
+         * @return The configuration with every diff in flight placed that read the writes the sides hold
+         **/
+        private Configuration placeDiffs(Configuration configuration, BitSet inFlight) {
+            if (configuration.left < 0 || configuration.right < 0)
+                return configuration;
+
+            long current = (long) configuration.left << 32 | configuration.right;
+            BitSet placed = null;
+            for (int i = inFlight.nextSetBit(0); i >= 0; i = inFlight.nextSetBit(i + 1)) {
+                if (reads[i] != null && !configuration.placed.get(i) && Arrays.binarySearch(reads[i], current) >= 0) {
+                    if (placed == null)
+                        placed = (BitSet) configuration.placed.clone();
+                    placed.set(i);
+                }
+            }
+            return placed == null ? configuration : new Configuration(configuration.left, configuration.right, placed);
+        }
+    }
+
+    /**
+     * The writes the sides of an ID hold, -1 if never written, and which of the requests in flight are placed
+     **/
+    private static final class Configuration {
+        final int left;
+        final int right;
+        final BitSet placed;
+
+        Configuration(int left, int right, BitSet placed) {
+            this.left = left;
+            this.right = right;
+            this.placed = placed;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Configuration))
+                return false;
+            Configuration configuration = (Configuration) other;
+            return left == configuration.left && right == configuration.right && placed.equals(configuration.placed);
+        }
+
+        @Override
+        public int hashCode() {
+            return (left * 31 + right) * 31 + placed.hashCode();
+        }
+    }
+
+    private interface Client {
+        List<Operation> run(int client) throws Exception;
+    }
+
+    private interface ClientID {
+        long of(int client);
+    }
+
+    /**
+     * One request: a side write with the value written, or a diff with its result.
+     **/
+    private static final class Operation {
+        final long id;
+        final String kind;
+        final String value;
+        final long start;
+        final long end;
+        final int status;
+
+        Operation(long id, String kind, String value, long start, long end, int status) {
+            this.id = id;
+            this.kind = kind;
+            this.value = value;
+            this.start = start;
+            this.end = end;
+            this.status = status;
+        }
+    }
+}
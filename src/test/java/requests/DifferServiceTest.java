@@ -10,9 +10,11 @@ import org.testng.annotations.Test;
 import responseModels.LengthTypeDetailResponse;
 import responseModels.ErrorResponse;
 import responseModels.LengthTypeResponse;
+import utilities.DiffRanges;
 import utilities.Endpoints;
 
 import java.io.IOException;
+import java.util.Random;
 
 import static io.restassured.RestAssured.given;
 import static utilities.TestUtililities.*;
@@ -30,7 +32,7 @@ public class DifferServiceTest extends TestBase {
      *
      * @throws IOException
      */
-    @BeforeTest
+    @BeforeTest(alwaysRun = true)
     public void setBaseURI() throws IOException {
         initializeBaseURI();
     }
@@ -39,21 +41,21 @@ public class DifferServiceTest extends TestBase {
      * Generates unique ID before each test method is run
      * The generated ID is always positive
      */
-    @BeforeMethod
+    @BeforeMethod(alwaysRun = true)
     public void uniqueIDForEachMethod() {
         generateID();
     }
 
-    @Test
+    @Test(groups = "smoke")
     public void when_EqualSidesAreDiffed_Expect_Equal() {
         //Set ID, side and value for the left side
-        setSideValue(999, "left", "\"" + encodeInBase64("continuous12345") + "\"");
+        setSideValue(fixedID(999), "left", jsonBody("continuous12345"));
 
         //Set ID, side and value for the left side
-        setSideValue(999, "right", "\"" + encodeInBase64("continuous12345") + "\"");
+        setSideValue(fixedID(999), "right", jsonBody("continuous12345"));
 
         //Diff the sides
-        Response response = differentiateSides(999);
+        Response response = differentiateSides(fixedID(999));
 
         //Deserialize to a "Unequal Length Response" Object
         LengthTypeResponse lengthTypeResponse = response.as(LengthTypeResponse.class);
@@ -69,7 +71,7 @@ public class DifferServiceTest extends TestBase {
     @Test
     public void when_SidesAreDiffedAndLeftSideIsNull_Expect_DifferentLengthAndLeftHasNoValue() {
         //Set ID, side and value for right side
-        setSideValue(id, "right", "\"" + encodeInBase64("comingoverthere") + "\"");
+        setSideValue(id, "right", jsonBody("comingoverthere"));
 
         //Diff the sides
         Response response = differentiateSides(id);
@@ -95,7 +97,7 @@ public class DifferServiceTest extends TestBase {
     // @Test
     public void when_SidesAreDiffedAndRightSideIsNull_Expect_DifferentLengthAndRightHasNoValue() {
         //Set ID, side and value for left side
-        setSideValue(id, "left", "\"" + encodeInBase64("comingoverthere") + "\"");
+        setSideValue(id, "left", jsonBody("comingoverthere"));
 
         //Diff the sides
         Response response = differentiateSides(id);
@@ -121,10 +123,10 @@ public class DifferServiceTest extends TestBase {
     @Test
     public void when_SidesOfDifferentLengthsAreDiffed_Expect_DifferentLength() {
         //Set ID, side and value for left side
-        setSideValue(id, "left", "\"" + encodeInBase64("Marvelous Things!!") + "\"");
+        setSideValue(id, "left", jsonBody("Marvelous Things!!"));
 
         //Set ID, side and value for right side
-        setSideValue(id, "right", "\"" + encodeInBase64("Marvelous") + "\"");
+        setSideValue(id, "right", jsonBody("Marvelous"));
 
         //Diff the sides
         Response response = differentiateSides(id);
@@ -140,7 +142,7 @@ public class DifferServiceTest extends TestBase {
         Assert.assertEquals(type, "DIFFERENT_LENGTH");
     }
 
-    @Test
+    @Test(groups = "smoke")
     public void when_IDThatIsNotInitializedIsDiffed_Expect_IDNotInitialized() {
         //Diff the sides without setting sides
         Response response = differentiateSides(id);
@@ -171,12 +173,12 @@ public class DifferServiceTest extends TestBase {
     }
 
     @Test
-    public void when_SidesOfSameLengthButDifferentCharactersAreDiffed_Expect_PositionOfDifferentCharacters() {
+    public void when_SidesOfSameLengthButDifferentCharactersAreDiffed_Expect_PositionOfDifferentCharacters() throws IOException {
         //Set ID, side and value for left side
-        setSideValue(id, "left", "\"" + encodeInBase64("Long string to test the position of different characters.") + "\"");
+        setSideValue(id, "left", jsonBody("Long string to test the position of different characters."));
 
         //Set ID, side and value for right side
-        setSideValue(id, "right", "\"" + encodeInBase64("Long strung to test the position of different characters!") + "\"");
+        setSideValue(id, "right", jsonBody("Long strung to test the position of different characters!"));
 
         //Diff the sides
         Response response = differentiateSides(id);
@@ -195,17 +197,20 @@ public class DifferServiceTest extends TestBase {
         //Verify that the detail is 'Values are different on char(s) [11] [75].'
         Assert.assertEquals(detail, "Values are different on char(s) [11] [75].");
 
+        //Verify that the ranges read from the response are [11] and [75]
+        Assert.assertEquals(DiffRanges.parse(response.asInputStream()), DiffRanges.of(11, 11, 75, 75));
+
         //Verify that the type is DIFFERENT_CHARS
         Assert.assertEquals(type, "DIFFERENT_CHARS");
     }
 
     @Test
-    public void when_SidesOfSameLengthButDifferentSuccessiveCharactersAreDiffed_Expect_RangedPositionOfDifferentCharacters() {
+    public void when_SidesOfSameLengthButDifferentSuccessiveCharactersAreDiffed_Expect_RangedPositionOfDifferentCharacters() throws IOException {
         //Set ID, side and value for left side
-        setSideValue(id, "left", "\"" + encodeInBase64("Marvelous") + "\"");
+        setSideValue(id, "left", jsonBody("Marvelous"));
 
         //Set ID, side and value for right side
-        setSideValue(id, "right", "\"" + encodeInBase64("12345abcd") + "\"");
+        setSideValue(id, "right", jsonBody("12345abcd"));
 
         //Diff the sides
         Response response = differentiateSides(id);
@@ -224,10 +229,40 @@ public class DifferServiceTest extends TestBase {
         //Verify that the detail is 'Values are different on char(s) [0-5] [7-11].'
         Assert.assertEquals(detail, "Values are different on char(s) [0-5] [7-11].");
 
+        //Verify that the ranges read from the response are [0-5] and [7-11]
+        Assert.assertEquals(DiffRanges.parse(response.asInputStream()), DiffRanges.of(0, 5, 7, 11));
+
         //Verify that the type is DIFFERENT_CHARS
         Assert.assertEquals(type, "DIFFERENT_CHARS");
     }
 
+    @Test(groups = "large-payload")
+    public void when_SidesOfSameLengthDifferInManyPlaces_Expect_EveryRangeOfDifferentCharacters() throws IOException {
+        //Build sides that differ in roughly one character out of four
+        Random random = new Random(39);
+        char[] left = new char[200_000];
+        char[] right = new char[left.length];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = (char) ('a' + random.nextInt(26));
+            right[i] = random.nextInt(4) == 0 ? (char) ('a' + random.nextInt(26)) : left[i];
+        }
+        String leftValue = encodeInBase64(new String(left));
+        String rightValue = encodeInBase64(new String(right));
+
+        //Set ID, side and value for left and right side
+        setSideValue(id, "left", oneOffJsonBody(new String(left)));
+        setSideValue(id, "right", oneOffJsonBody(new String(right)));
+
+        //Diff the sides, reading the ranges straight from the response stream
+        DiffRanges actual = differentRanges(id);
+        DiffRanges expected = DiffRanges.between(leftValue, rightValue);
+
+        //Verify that every range is the expected one
+        int mismatch = actual.mismatch(expected);
+        Assert.assertEquals(mismatch, -1, "Range " + mismatch + " is " + actual.describe(mismatch)
+                + ", expected " + expected.describe(mismatch) + " of " + expected.size() + " ranges");
+    }
+
     @Test
     public void when_DiffRequestIsDelete_Expect_405MethodNotAllowed() {
         //Set ID, side and value for left side
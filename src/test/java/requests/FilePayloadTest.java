@@ -0,0 +1,118 @@
+package requests;
+
+import hook.TestBase;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import utilities.Environment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static utilities.TestUtililities.*;
+
+/**
+ * This class contains the tests for side values sent from files.
+ *
+ * Every folder in the fixtures folder is a test case: the raw bytes of the left and right sides
+ * in left.bin and right.bin, and the expected diff response in expected.json.
+ * The sides are streamed from memory-mapped files, so fixtures can be production samples of any size.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * FIXTURES_DIR=src/test/resources/fixtures - folder of the test cases
+ * LARGE_PAYLOAD_MB=16 - size of the generated payload of the large payload test
+ *
+ * @author Adebowale Otulana
+ */
+public class FilePayloadTest extends TestBase {
+
+    /**
+     * Before the tests, it initializes the base URI which will be used by each test method.
+     *
+     * @throws IOException
+     */
+    @BeforeTest(alwaysRun = true)
+    public void setBaseURI() throws IOException {
+        initializeBaseURI();
+    }
+
+    /**
+     * Generates unique ID before each test method is run
+     */
+    @BeforeMethod(alwaysRun = true)
+    public void uniqueIDForEachMethod() {
+        generateID();
+    }
+
+    @DataProvider
+    public Object[][] fixtures() throws IOException {
+        List<Object[]> fixtures = new ArrayList<>();
+
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(
+                Paths.get(Environment.get("FIXTURES_DIR", "src/test/resources/fixtures")), Files::isDirectory)) {
+            for (Path folder : folders)
+                fixtures.add(new Object[] {folder.getFileName().toString(), folder});
+        }
+        return fixtures.toArray(new Object[0][]);
+    }
+
+    @Test(dataProvider = "fixtures")
+    public void when_SidesAreSentFromFixtureFiles_Expect_ExpectedDiff(String fixture, Path folder) throws IOException {
+        //Stream the left and right sides from the fixture files
+        Response leftResponse = setSideValue(id, "left", folder.resolve("left.bin"));
+        Response rightResponse = setSideValue(id, "right", folder.resolve("right.bin"));
+
+        //Verify that both sides were accepted
+        Assert.assertEquals(leftResponse.getStatusCode(), 200, fixture + ": left side rejected");
+        Assert.assertEquals(rightResponse.getStatusCode(), 200, fixture + ": right side rejected");
+
+        //Diff the sides
+        JsonPath actual = differentiateSides(id).jsonPath();
+        JsonPath expected = JsonPath.from(folder.resolve("expected.json").toFile());
+
+        //Verify that the type is the expected one
+        Assert.assertEquals(actual.getString("type"), expected.getString("type"), fixture + ": type");
+
+        //Verify that the detail is the expected one, if the fixture expects one
+        if (expected.getString("detail") != null)
+            Assert.assertEquals(actual.getString("detail"), expected.getString("detail"), fixture + ": detail");
+    }
+
+    @Test(groups = "large-payload")
+    public void when_LargeFileIsSentAsBothSides_Expect_Equal() throws IOException {
+        long size = Long.parseLong(Environment.get("LARGE_PAYLOAD_MB", "16")) * 1024 * 1024;
+        Path file = Files.createTempFile("large-payload", ".bin");
+
+        try {
+            //Write random bytes, so the Base64 encoded payload is not trivially compressible
+            Random random = new Random(36);
+            byte[] block = new byte[1024 * 1024];
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < size; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(block.length, size - written));
+                }
+            }
+
+            //Stream the same file as both sides, without loading it onto the heap
+            Assert.assertEquals(setSideValue(id, "left", file).getStatusCode(), 200);
+            Assert.assertEquals(setSideValue(id, "right", file).getStatusCode(), 200);
+
+            //Verify that the type is EQUAL
+            Assert.assertEquals(differentiateSides(id).jsonPath().getString("type"), "EQUAL");
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -46,7 +46,7 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_BodyDataIsNotBase64Encoded_Expect_DataNotBase64Exception() {
         //Send non Base64 encoded data
-        Response response = setSideValue(10, "left", "\"abujfdbfjawsasd\"");
+        Response response = setSideValue(fixedID(10), "left", "\"abujfdbfjawsasd\"");
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -76,11 +76,10 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_UpIsEnteredAsSide_Expect_SideNameNotSupportedException() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send undefined side (e.g. up)
-        Response response = setSideValue(1, "up", bodyBase64String);
+        Response response = setSideValue(fixedID(1), "up", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -110,11 +109,10 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_OnlyWhiteSpacesIsEnteredAsSide_Expect_SideNameNotSupportedException() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send white spaces as side
-        Response response = setSideValue(1, "      ", bodyBase64String);
+        Response response = setSideValue(fixedID(1), "      ", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -144,11 +142,10 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_EmptyStringIsPassedAsSide_Expect_SideNameNotSupportedException() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send empty string as side
-        Response response = setSideValue(99, "", bodyBase64String);
+        Response response = setSideValue(fixedID(99), "", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -161,11 +158,10 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_EmptyStringIsEnteredAsID_Expect_404NotFound() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send empty string as ID
-        Response response = setSideValue("", "left", bodyBase64String);
+        Response response = setSideValue("", "left", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -181,11 +177,10 @@ public class SideServiceTest extends TestBase {
     //@Test
     public void when_OnlyWhiteSpacesIsEnteredAsID_Expect_404NotFound() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send white spaces as ID
-        Response response = setSideValue("    ", "left", bodyBase64String);
+        Response response = setSideValue("    ", "left", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -201,11 +196,10 @@ public class SideServiceTest extends TestBase {
     //@Test
     public void when_NegativeValueIsEnteredAsID_Expect_404NotFound() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send negative value as ID
-        Response response = setSideValue(-1, "left", bodyBase64String);
+        Response response = setSideValue(-1, "left", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -221,11 +215,10 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_AlphanumericValueIsEnteredAsID_Expect_404NotFound() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send alphanumeric value as ID
-        Response response = setSideValue("ab12", "left", bodyBase64String);
+        Response response = setSideValue("ab12", "left", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -238,15 +231,14 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_SideRequestContentTypeIsXml_Expect_415UnsupportedMediaType() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send XML Content Type
         given().
                 contentType(ContentType.XML). //XML Content Type
-                pathParam("id",64).
+                pathParam("id",fixedID(64)).
                 pathParam("side", "right").
-                body(bodyBase64String).
+                body(requestBody).
         when().
                 post(Endpoints.POST_SIDE).
         then().
@@ -257,15 +249,14 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_SideRequestContentTypeIsText_Expect_415UnsupportedMediaType() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send Text Content Type
         given().
                 contentType(ContentType.TEXT). //Text Content Type
-                pathParam("id",71).
+                pathParam("id",fixedID(71)).
                 pathParam("side", "right").
-                body(bodyBase64String).
+                body(requestBody).
         when().
                 post(Endpoints.POST_SIDE).
         then().
@@ -276,15 +267,14 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_SideRequestContentTypeIsHTML_Expect_415UnsupportedMediaType() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send HTML Content Type
         given().
                 contentType(ContentType.HTML). //HTML Content Type
-                pathParam("id",34).
+                pathParam("id",fixedID(34)).
                 pathParam("side", "right").
-                body(bodyBase64String).
+                body(requestBody).
         when().
                 post(Endpoints.POST_SIDE).
         then().
@@ -295,15 +285,14 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_SideRequestHasNoContentType_Expect_415UnsupportedMediaType() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send No Content Type
         given().
                 //No Content Type
-                pathParam("id",18).
+                pathParam("id",fixedID(18)).
                 pathParam("side", "right").
-                body(bodyBase64String).
+                body(requestBody).
         when().
                 post(Endpoints.POST_SIDE).
         then().
@@ -314,14 +303,13 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_SideRequestMethodIsPUT_Expect_405MethodNotAllowed() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send PUT request
         given().
-                pathParam("id",19).
+                pathParam("id",fixedID(19)).
                 pathParam("side", "left").
-                body(bodyBase64String).
+                body(requestBody).
         when().
                 put(Endpoints.POST_SIDE). //PUT method instead of POST
         then().
@@ -332,11 +320,10 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_AlphabetOnlyIsEnteredAsID_Expect_404NotFound() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("abujfdbfjawsasd") + "\"";
+        byte[] requestBody = jsonBody("abujfdbfjawsasd");
 
         //Send alphabets as ID
-        Response response = setSideValue("invalid", "right", bodyBase64String);
+        Response response = setSideValue("invalid", "right", requestBody);
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -349,7 +336,7 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_BodyIsNotPassedInSideRequest_Expect_400BadRequest() {
         //Do not include body in request
-        Response response = setSideValue(22, "right");
+        Response response = setSideValue(fixedID(22), "right");
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -382,7 +369,7 @@ public class SideServiceTest extends TestBase {
     @Test
     public void when_EmptyStringIsPassedAsBody_Expect_400BadRequest() {
         //Send empty string as the body
-        Response response = setSideValue(22,"right", "");
+        Response response = setSideValue(fixedID(22), "right", "");
 
         //Get HTTP Status Code from response
         int statusCode;
@@ -409,14 +396,13 @@ public class SideServiceTest extends TestBase {
         Assert.assertEquals(errorMessage, "Value in request body cannot be empty.");
     }
 
-    @Test
+    @Test(groups = "smoke")
     public void when_ValidLeftSideRequestIsMade_Expect_AcceptedLeftSideBase64Data() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("123456789000") + "\"";
+        byte[] requestBody = jsonBody("123456789000");
 
         //Set ID, side and base64 encoded value
-        Response response = setSideValue(10, "left", bodyBase64String);
+        Response response = setSideValue(fixedID(10), "left", requestBody);
 
         //Deserialize to a "Left Side Success Response" Object
         LeftSideSuccessResponse leftSideSuccessResponse = response.as(LeftSideSuccessResponse.class);
@@ -429,14 +415,13 @@ public class SideServiceTest extends TestBase {
         Assert.assertEquals(leftValue, encodeInBase64("123456789000"));
     }
 
-    @Test
+    @Test(groups = "smoke")
     public void when_ValidRightSideRequestIsMade_Expect_AcceptedRightSideBase64Data() {
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("12345abcd") + "\"";
+        byte[] requestBody = jsonBody("12345abcd");
 
         //Set ID, side and base64 encoded value
-        Response response = setSideValue(21, "right", bodyBase64String);
+        Response response = setSideValue(fixedID(21), "right", requestBody);
 
         //Deserialize to a "Right Side Success Response" Object
         RightSideSuccessResponse rightSideSuccessResponse = response.as(RightSideSuccessResponse.class);
@@ -455,17 +440,16 @@ public class SideServiceTest extends TestBase {
         generateID();
 
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("adebowale") + "\"";
+        byte[] requestBody = jsonBody("adebowale");
 
         //Set generated ID, side and base64 encoded value
-        setSideValue(id, "left", bodyBase64String);
+        setSideValue(id, "left", requestBody);
 
-        bodyBase64String = "\"" + encodeInBase64("formatting12345") + "\"";
+        requestBody = jsonBody("formatting12345");
 
         //Set generated ID, side and base64 encoded value
         //Value is encoded by the method
-        Response response = setSideValue(id, "right", bodyBase64String);
+        Response response = setSideValue(id, "right", requestBody);
 
         //Deserialize to a "Left and Right Side Success Response" Object
         LeftAndRightSideSuccessResponse leftAndRightSideSuccessResponse = response.as(LeftAndRightSideSuccessResponse.class);
@@ -491,17 +475,16 @@ public class SideServiceTest extends TestBase {
         generateID();
 
         //Encode Body in Base 64
-        String bodyBase64String;
-        bodyBase64String = "\"" + encodeInBase64("Lifted up") + "\"";
+        byte[] requestBody = jsonBody("Lifted up");
 
         //Set generated ID, side and base64 encoded value
-        setSideValue(id, "right", bodyBase64String);
+        setSideValue(id, "right", requestBody);
 
-        bodyBase64String = "\"" + encodeInBase64("Dropped down") + "\"";
+        requestBody = jsonBody("Dropped down");
 
         //Set generated ID, side and non base64 encoded value
         //Value is encoded by the method
-        Response response = setSideValue(id, "right", bodyBase64String);
+        Response response = setSideValue(id, "right", requestBody);
 
         //Deserialize to a "Right Side Success Response" Object
         RightSideSuccessResponse rightSideSuccessResponse = response.as(RightSideSuccessResponse.class);
@@ -0,0 +1,213 @@
+package requests;
+
+import hook.TestBase;
+import load.DiffWorkflow;
+import load.WorkflowStats;
+import org.testng.Assert;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import utilities.DiffRanges;
+import utilities.Environment;
+import utilities.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static utilities.TestUtililities.*;
+
+/**
+ * This class contains the read-your-writes tests of the differ.
+ *
+ * A side is updated again and again, and after every update the same ID is diffed until the diff
+ * reflects the new value. Each update writes the number of the update in binary, one changed character
+ * per bit that is set, so no two updates of a step have the same ranges of different characters
+ * and an outdated diff is recognised by its ranges.
+ * The number of outdated diffs and the time until the new value is visible are recorded
+ * while more and more background clients run diff workflows on other IDs.
+ * The staleness distribution and the request latencies are written to test-output/staleness-report.csv.
+ *
+ * Configuration (see {@link Environment}), with defaults:
+ * STALENESS_LOAD_STEPS=0,4,16 - background clients of each step
+ * STALENESS_UPDATES=60 - side updates per step
+ * STALENESS_MAX_POLLS=200 - diffs after an update before the update counts as never visible
+ * STALENESS_MAX_STALE_POLLS - fails when an update needed more outdated diffs than this, not set by default
+ *
+ * @author Adebowale Otulana
+ */
+public class StalenessTest extends TestBase {
+
+    public static final Path REPORT_FILE = Paths.get("test-output", "staleness-report.csv");
+
+    /**
+     * Characters that can be changed, one per bit of the update number:
+     * every third one, so each change is in its own Base64 group
+     **/
+    private static final int POSITIONS = 64;
+
+    /**
+     * Before the tests, it initializes the base URI which will be used by each test method.
+     *
+     * @throws IOException
+     */
+    @BeforeTest(alwaysRun = true)
+    public void setBaseURI() throws IOException {
+        initializeBaseURI();
+    }
+
+    /**
+     * Generates unique ID before each test method is run
+     */
+    @BeforeMethod(alwaysRun = true)
+    public void uniqueIDForEachMethod() {
+        generateID();
+    }
+
+    @Test(groups = "staleness")
+    public void when_SideIsUpdatedUnderLoad_Expect_DiffReflectsTheUpdate() throws Exception {
+        String[] loadSteps = Environment.get("STALENESS_LOAD_STEPS", "0,4,16").split(",");
+        int updates = Integer.parseInt(Environment.get("STALENESS_UPDATES", "60"));
+        int maxPolls = Integer.parseInt(Environment.get("STALENESS_MAX_POLLS", "200"));
+        String maxStalePolls = Environment.get("STALENESS_MAX_STALE_POLLS");
+
+        char[] unchanged = new char[POSITIONS * 3];
+        Arrays.fill(unchanged, 'a');
+        String right = new String(unchanged);
+
+        //The right side never changes, every update is a new left side
+        Assert.assertEquals(setSideValue(id, "right", DiffWorkflow.encodedBody(right)).getStatusCode(), 200);
+
+        Files.createDirectories(REPORT_FILE.getParent());
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(REPORT_FILE))) {
+            report.println("load_clients,updates,fresh_on_first_diff_percent,stale_diffs_p50,stale_diffs_p99,stale_diffs_max,"
+                    + "visible_after_ms_p50,visible_after_ms_p99,visible_after_ms_max,write_p50_ms,write_p99_ms,"
+                    + "diff_p50_ms,diff_p99_ms,background_workflows_per_s,never_visible,stale_diffs_histogram");
+
+            for (String loadStep : loadSteps) {
+                int clients = Integer.parseInt(loadStep.trim());
+
+                LatencyHistogram write = new LatencyHistogram();
+                LatencyHistogram diff = new LatencyHistogram();
+                LatencyHistogram visibleAfter = new LatencyHistogram();
+                long[] staleDiffs = new long[updates];
+                Map<Long, Integer> histogram = new TreeMap<>();
+                int neverVisible = 0;
+
+                WorkflowStats background = new WorkflowStats();
+                AtomicBoolean stop = new AtomicBoolean();
+                ExecutorService executor = clients == 0 ? null : Executors.newFixedThreadPool(clients);
+                ITestResult test = Reporter.getCurrentTestResult();
+                boolean logDiffs = logDiffResponses;
+                logDiffResponses = false;
+
+                try {
+                    for (int i = 0; i < clients; i++) {
+                        executor.execute(() -> {
+                            //Attribute the requests of the client, e.g. slow request captures, to the test
+                            Reporter.setCurrentTestResult(test);
+                            Random random = new Random();
+                            while (!stop.get())
+                                DiffWorkflow.random(100, random).run(background, System.nanoTime());
+                        });
+                    }
+
+                    for (int update = 0; update < updates; update++) {
+                        //Write the update number plus one, so no update repeats an earlier value or the right side
+                        char[] changed = unchanged.clone();
+                        for (int bit = 0; bit < POSITIONS; bit++) {
+                            if (((update + 1L) >>> bit & 1) == 1)
+                                changed[bit * 3] = 'b';
+                        }
+                        String left = new String(changed);
+                        DiffRanges expected = DiffRanges.between(encodeInBase64(left), encodeInBase64(right));
+
+                        long start = System.nanoTime();
+                        int status = setSideValue(id, "left", oneOffJsonBody(left)).getStatusCode();
+                        long written = System.nanoTime();
+                        write.record((written - start) / 1000);
+
+                        //Verify that the update was accepted
+                        Assert.assertEquals(status, 200, "Update " + update + " rejected");
+
+                        //Diff until the diff reflects the update
+                        int polls = 0;
+                        boolean visible = false;
+                        while (!visible && polls < maxPolls) {
+                            long pollStart = System.nanoTime();
+                            DiffRanges actual = differentRanges(id);
+                            diff.record((System.nanoTime() - pollStart) / 1000);
+                            polls++;
+                            visible = actual.mismatch(expected) == -1;
+                        }
+
+                        if (visible) {
+                            visibleAfter.record((System.nanoTime() - written) / 1000);
+                            staleDiffs[update] = polls - 1;
+                            histogram.merge(polls - 1L, 1, Integer::sum);
+                        } else {
+                            staleDiffs[update] = polls;
+                            neverVisible++;
+                        }
+                    }
+                } finally {
+                    stop.set(true);
+                    logDiffResponses = logDiffs;
+                    if (executor != null) {
+                        executor.shutdown();
+                        executor.awaitTermination(1, TimeUnit.MINUTES);
+                    }
+                    background.finish();
+                }
+
+                Arrays.sort(staleDiffs);
+                StringBuilder distribution = new StringBuilder();
+                for (Map.Entry<Long, Integer> bucket : histogram.entrySet())
+                    distribution.append(distribution.length() == 0 ? "" : ";").append(bucket.getKey()).append(':').append(bucket.getValue());
+
+                report.println(String.format(Locale.ROOT, "%d,%d,%.1f,%d,%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.1f,%d,%s",
+                        clients, updates, 100.0 * histogram.getOrDefault(0L, 0) / updates,
+                        percentile(staleDiffs, 50), percentile(staleDiffs, 99), staleDiffs[updates - 1],
+                        visibleAfter.percentile(50) / 1000.0, visibleAfter.percentile(99) / 1000.0, visibleAfter.max() / 1000.0,
+                        write.percentile(50) / 1000.0, write.percentile(99) / 1000.0,
+                        diff.percentile(50) / 1000.0, diff.percentile(99) / 1000.0,
+                        clients == 0 ? 0 : background.throughput(), neverVisible, distribution));
+                report.flush();
+
+                Reporter.log(String.format(Locale.ROOT,
+                        "Staleness with %d background clients: %s outdated diffs per update (count:updates), max %d",
+                        clients, distribution, staleDiffs[updates - 1]));
+
+                //Verify that every update became visible
+                Assert.assertEquals(neverVisible, 0, neverVisible + " of " + updates + " updates were not visible after "
+                        + maxPolls + " diffs with " + clients + " background clients");
+
+                //Verify that no update needed more outdated diffs than configured
+                if (maxStalePolls != null)
+                    Assert.assertTrue(staleDiffs[updates - 1] <= Long.parseLong(maxStalePolls), "An update needed "
+                            + staleDiffs[updates - 1] + " outdated diffs with " + clients + " background clients");
+            }
+        }
+    }
+
+    /**
+     * @return The nearest-rank percentile of sorted values
+     **/
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+    }
+}
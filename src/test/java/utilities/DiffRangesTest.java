@@ -0,0 +1,142 @@
+package utilities;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class contains the tests for reading the ranges of a diff response body with {@link DiffRanges#parse}.
+ * They need no differ.
+ *
+ * The bodies are fed one byte per read, so every escape, number and range of them
+ * is split across the buffer refills of the parser.
+ *
+ * @author Adebowale Otulana
+ */
+public class DiffRangesTest {
+
+    @Test
+    public void when_DetailHasRangesAndSingleChars_Expect_EveryRange() throws IOException {
+        DiffRanges ranges = parse("{\"type\":\"DIFFERENT_CHARS\",\"detail\":\"Values are different on char(s) [0-5] [7] [1024-65535].\"}");
+
+        Assert.assertEquals(ranges, DiffRanges.of(0, 5, 7, 7, 1024, 65535));
+    }
+
+    @Test
+    public void when_OffsetsHaveManyDigits_Expect_WholeOffsets() throws IOException {
+        DiffRanges ranges = parse("{\"detail\":\"Values are different on char(s) [9223372036854775806-9223372036854775807].\"}");
+
+        Assert.assertEquals(ranges, DiffRanges.of(9223372036854775806L, 9223372036854775807L));
+    }
+
+    @Test
+    public void when_DetailHasEscapedCharacters_Expect_EscapesSkipped() throws IOException {
+        //An escaped quote does not end the detail, an escaped backslash does not escape the quote after it
+        DiffRanges ranges = parse("{\"detail\":\"Values \\\"are\\\" different on char(s) [3] [5-6] \\\\\",\"type\":\"DIFFERENT_CHARS\"}");
+
+        Assert.assertEquals(ranges, DiffRanges.of(3, 3, 5, 6));
+    }
+
+    @Test
+    public void when_FieldNameHasEscapedCharacters_Expect_FieldSkipped() throws IOException {
+        DiffRanges ranges = parse("{\"de\\\"tail\":\"[1]\",\"detail\":\"[2]\"}");
+
+        Assert.assertEquals(ranges, DiffRanges.of(2, 2));
+    }
+
+    @Test
+    public void when_NestedValuesHaveRangesAndDetails_Expect_OnlyTopLevelDetailRead() throws IOException {
+        DiffRanges ranges = parse("{\"meta\":{\"detail\":\"[1-2]\",\"list\":[\"[3]\",{\"detail\":\"}]\"}]},"
+                + "\"counts\":[1,[2,3]],\"flag\":true,\"detail\":\"Values are different on char(s) [8-9].\",\"after\":\"[10]\"}");
+
+        Assert.assertEquals(ranges, DiffRanges.of(8, 9));
+    }
+
+    @Test
+    public void when_DetailIsNull_Expect_NoRanges() throws IOException {
+        DiffRanges ranges = parse("{\"type\":\"EQUAL\",\"detail\":null}");
+
+        Assert.assertEquals(ranges.size(), 0);
+    }
+
+    @Test
+    public void when_DetailIsMissing_Expect_NoRanges() throws IOException {
+        DiffRanges ranges = parse(" \r\n{ \"type\" : \"DIFFERENT_LENGTH\" }");
+
+        Assert.assertEquals(ranges.size(), 0);
+    }
+
+    @Test
+    public void when_DetailHasNoBrackets_Expect_NoRanges() throws IOException {
+        //Numbers and dashes outside of brackets are not ranges
+        DiffRanges ranges = parse("{\"detail\":\"Values differ in 12 - 14 char(s) ] [\"}");
+
+        Assert.assertEquals(ranges.size(), 0);
+    }
+
+    @Test
+    public void when_DetailIsLongerThanTheBuffer_Expect_EveryRange() throws IOException {
+        StringBuilder body = new StringBuilder("{\"detail\":\"Values are different on char(s)");
+        DiffRanges expected = new DiffRanges();
+        for (long i = 0; i < 5000; i++) {
+            body.append(" [").append(i * 10).append('-').append(i * 10 + 3).append(']');
+            expected.add(i * 10, i * 10 + 3);
+        }
+        body.append(".\"}");
+
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(DiffRanges.parse(new ByteArrayInputStream(bytes)), expected);
+        Assert.assertEquals(DiffRanges.parse(new OneByteInputStream(bytes)), expected);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void when_BodyEndsInsideTheDetail_Expect_IOException() throws IOException {
+        parse("{\"detail\":\"Values are different on char(s) [1-2] [4");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void when_BodyEndsAfterAnEscapeInsideTheDetail_Expect_IOException() throws IOException {
+        parse("{\"detail\":\"[1] \\");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void when_BodyIsNotAJsonObject_Expect_IOException() throws IOException {
+        parse("[\"detail\"]");
+    }
+
+    private static DiffRanges parse(String body) throws IOException {
+        return DiffRanges.parse(new OneByteInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns at most one byte per read, as a slow connection may.
+     **/
+    private static final class OneByteInputStream extends InputStream {
+        private final byte[] bytes;
+        private int position;
+
+        OneByteInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0)
+                return 0;
+
+            int b = read();
+            if (b == -1)
+                return -1;
+
+            buffer[offset] = (byte) b;
+            return 1;
+        }
+    }
+}